@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
+import org.icgc_argo.workflow_raccoon.model.RunUpdate;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPod;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPodTable;
+import org.icgc_argo.workflow_raccoon.model.rdpc.Run;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+
+/** Meal plan computation once all pods and runs are fetched, i.e. without any network calls. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MealPlanPlanningBenchmark {
+
+  @Param({"1000", "50000", "500000"})
+  int pods;
+
+  RunPodTable runPods;
+  List<Run> activeRuns;
+
+  @Setup
+  public void setup() {
+    runPods = SyntheticData.runPodTable(pods);
+    activeRuns = SyntheticData.activeRuns(pods);
+  }
+
+  @Benchmark
+  public List<RunUpdate> createActiveToInactiveRunUpdates() {
+    return RaccoonService.createActiveToInactiveRunUpdates(
+            Flux.fromIterable(activeRuns),
+            runPods,
+            (podName, cluster) -> PodLog.EMPTY,
+            RunStateDebouncer.immediate(),
+            observation -> {})
+        .block();
+  }
+
+  @Benchmark
+  public List<RunPod> toCleanup() {
+    return RaccoonService.toCleanup(runPods, 30);
+  }
+
+  @Benchmark
+  public List<RunPod> toCleanupNothingStale() {
+    return RaccoonService.toCleanup(runPods, 365);
+  }
+}
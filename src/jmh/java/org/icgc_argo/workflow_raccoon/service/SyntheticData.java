@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static java.time.format.DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.experimental.UtilityClass;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
+import org.icgc_argo.workflow_raccoon.model.RunUpdate;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPod;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPodTable;
+import org.icgc_argo.workflow_raccoon.model.rdpc.Run;
+
+/**
+ * Cluster and rdpc contents shaped like production: one in ten pods is a wes- run pod, the rest are
+ * its nf- task pods, pod ages are spread over the last 60 days and every wes- pod has an active
+ * rdpc run.
+ */
+@UtilityClass
+class SyntheticData {
+  static final OffsetDateTime NOW = OffsetDateTime.now(ZoneOffset.UTC);
+  static final int TASKS_PER_RUN = 9;
+
+  private static final WesStates[] POD_STATES = {
+    WesStates.RUNNING,
+    WesStates.RUNNING,
+    WesStates.RUNNING,
+    WesStates.COMPLETE,
+    WesStates.EXECUTOR_ERROR
+  };
+  private static final String[] REPOSITORIES = {
+    "https://github.com/icgc-argo/nextflow-dna-seq-alignment.git",
+    "https://github.com/icgc-argo/sanger-wgs-variant-calling.git",
+    "https://github.com/icgc-argo/gatk-mutect2-variant-calling.git"
+  };
+
+  static String runId(int run) {
+    return "wes-" + Integer.toHexString(0x10000000 + run);
+  }
+
+  static OffsetDateTime startTime(int index) {
+    return NOW.minusMinutes(index % (60 * 24 * 60));
+  }
+
+  static List<RunPod> runPods(int podCount) {
+    val pods = new ArrayList<RunPod>(podCount);
+    for (int i = 0; i < podCount; i++) {
+      val isParent = i % (TASKS_PER_RUN + 1) == 0;
+      val run = i / (TASKS_PER_RUN + 1);
+      pods.add(
+          RunPod.builder()
+              .runId(isParent ? runId(run) : "nf-" + Integer.toHexString(i))
+              .age(startTime(i))
+              .state(POD_STATES[i % POD_STATES.length])
+              .log(PodLog.EMPTY)
+              .build());
+    }
+    return pods;
+  }
+
+  static RunPodTable runPodTable(int podCount) {
+    val table = new RunPodTable();
+    for (int i = 0; i < podCount; i++) {
+      val run = i / (TASKS_PER_RUN + 1);
+      val cluster = "cluster-" + (run & 1);
+      val age = startTime(i).toInstant().toEpochMilli();
+      val state = POD_STATES[i % POD_STATES.length];
+      if (i % (TASKS_PER_RUN + 1) == 0) {
+        table.addRun(cluster, runId(run), age, state);
+      } else {
+        table.addTask(cluster, "nf-" + Integer.toHexString(i), runId(run), age, state);
+      }
+    }
+    return table;
+  }
+
+  /** Active rdpc runs for the wes- pods, plus a few without any pod. */
+  static List<Run> activeRuns(int podCount) {
+    val runCount = podCount / (TASKS_PER_RUN + 1);
+    val runs = new ArrayList<Run>(runCount);
+    for (int run = 0; run < runCount + runCount / 20; run++) {
+      val rdpcRun = new Run();
+      rdpcRun.setRunId(runId(run));
+      rdpcRun.setSessionId("session-" + run);
+      rdpcRun.setRepository(REPOSITORIES[run % REPOSITORIES.length]);
+      rdpcRun.setState(WesStates.RUNNING);
+      rdpcRun.setStartTime(startTime(run).toInstant().toEpochMilli());
+      runs.add(rdpcRun);
+    }
+    return runs;
+  }
+
+  static List<Pod> kubernetesPods(int podCount) {
+    val phases = new String[] {"Running", "Running", "Running", "Succeeded", "Failed", "Pending"};
+    val pods = new ArrayList<Pod>(podCount);
+    for (int i = 0; i < podCount; i++) {
+      val isParent = i % (TASKS_PER_RUN + 1) == 0;
+      pods.add(
+          new PodBuilder()
+              .withNewMetadata()
+              .withName(isParent ? runId(i / (TASKS_PER_RUN + 1)) : "nf-" + Integer.toHexString(i))
+              .withNamespace("argo-runs")
+              .endMetadata()
+              .withNewStatus()
+              .withPhase(phases[i % phases.length])
+              .withStartTime(startTime(i).format(ISO_OFFSET_DATE_TIME))
+              .endStatus()
+              .build());
+    }
+    return pods;
+  }
+
+  static RunUpdate runUpdate(WesStates newState, int logLines) {
+    val log = new StringBuilder();
+    for (int i = 0; i < logLines; i++) {
+      log.append("[")
+          .append(i)
+          .append("] Process `align (\"SA610149.0\")` terminated with an error exit status (1)\n");
+    }
+    return RunUpdate.builder()
+        .runId(runId(1))
+        .sessionId("session-1")
+        .workflowUrl(REPOSITORIES[0])
+        .currentState(WesStates.RUNNING)
+        .newState(newState)
+        .startTime(NOW.minusHours(3))
+        .completeTime(NOW)
+        .logs(PodLog.of(log.toString()))
+        .build();
+  }
+}
@@ -19,6 +19,7 @@
 
 package org.icgc_argo.workflow_raccoon;
 
+import lombok.val;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
@@ -26,8 +27,13 @@ import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 @SpringBootApplication
 @ConfigurationPropertiesScan("org.icgc_argo.workflow_raccoon.properties")
 public class WorkflowRaccoonApplication {
+  // set when the docker build starts the app once to record the classes for its AppCDS archive
+  private static final String CDS_TRAINING_RUN = "raccoon.cdsTrainingRun";
 
   public static void main(String[] args) {
-    SpringApplication.run(WorkflowRaccoonApplication.class, args);
+    val context = SpringApplication.run(WorkflowRaccoonApplication.class, args);
+    if (Boolean.getBoolean(CDS_TRAINING_RUN)) {
+      System.exit(SpringApplication.exit(context));
+    }
   }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.configs;
+
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.properties.KubernetesClientDetails;
+import org.icgc_argo.workflow_raccoon.properties.KubernetesProperties;
+import org.icgc_argo.workflow_raccoon.properties.ShardingProperties;
+import org.icgc_argo.workflow_raccoon.service.KubernetesShardLeaseBackend;
+import org.icgc_argo.workflow_raccoon.service.ShardLeaseBackend;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ShardingConfig {
+
+  /** Leases live in the lease cluster, the first configured cluster if none is set. */
+  @Bean(destroyMethod = "close")
+  @ConditionalOnProperty(prefix = "sharding", name = "enabled", havingValue = "true")
+  public DefaultKubernetesClient shardLeaseKubernetesClient(
+      ShardingProperties sharding, KubernetesProperties kubernetes) {
+    val clientDetails = leaseClusterDetails(sharding, kubernetes);
+    return new DefaultKubernetesClient(
+        new ConfigBuilder()
+            .withMasterUrl(clientDetails.getMasterUrl())
+            .withNamespace(leaseNamespace(sharding, clientDetails))
+            .withTrustCerts(clientDetails.getTrustCertificate())
+            .build());
+  }
+
+  @Bean
+  @ConditionalOnProperty(prefix = "sharding", name = "enabled", havingValue = "true")
+  public ShardLeaseBackend shardLeaseBackend(
+      ShardingProperties sharding,
+      KubernetesProperties kubernetes,
+      DefaultKubernetesClient shardLeaseKubernetesClient) {
+    return new KubernetesShardLeaseBackend(
+        shardLeaseKubernetesClient,
+        leaseNamespace(sharding, leaseClusterDetails(sharding, kubernetes)),
+        sharding.getLeaseGroup());
+  }
+
+  private static KubernetesClientDetails leaseClusterDetails(
+      ShardingProperties sharding, KubernetesProperties kubernetes) {
+    return kubernetes.getClientList().stream()
+        .filter(
+            details ->
+                sharding.getLeaseCluster().isEmpty()
+                    || details.getName().equals(sharding.getLeaseCluster()))
+        .findFirst()
+        .orElseThrow(
+            () ->
+                new IllegalArgumentException(
+                    "Unknown lease cluster " + sharding.getLeaseCluster()));
+  }
+
+  private static String leaseNamespace(
+      ShardingProperties sharding, KubernetesClientDetails clientDetails) {
+    return sharding.getLeaseNamespace().isEmpty()
+        ? clientDetails.getRunsNamespace()
+        : sharding.getLeaseNamespace();
+  }
+}
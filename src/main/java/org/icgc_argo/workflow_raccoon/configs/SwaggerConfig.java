@@ -20,6 +20,7 @@
 package org.icgc_argo.workflow_raccoon.configs;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import springfox.documentation.builders.ApiInfoBuilder;
@@ -32,6 +33,12 @@ import springfox.documentation.swagger2.annotations.EnableSwagger2;
 
 @EnableSwagger2
 @Configuration
+// off in the fast-startup profile, scanning the handlers for the api docs is a large part of
+// startup
+@ConditionalOnProperty(
+    value = "springfox.documentation.enabled",
+    havingValue = "true",
+    matchIfMissing = true)
 public class SwaggerConfig {
   public static final String RUN_TAG_NAME = "Run";
 
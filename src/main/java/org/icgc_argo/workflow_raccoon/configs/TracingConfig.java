@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.configs;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.exporter.otlp.http.trace.OtlpHttpSpanExporter;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import java.io.IOException;
+import java.nio.file.Path;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.properties.TracingProperties;
+import org.icgc_argo.workflow_raccoon.utils.FileSpanExporter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TracingConfig {
+  private static final String SERVICE_NAME = "workflow-raccoon";
+
+  /**
+   * Spans are exported in batches off the pass threads, and flushed when the context closes.
+   * Without an exporter nothing is sampled, spans are then no more than a few no-op calls.
+   */
+  @Bean(destroyMethod = "close")
+  public SdkTracerProvider tracerProvider(TracingProperties tracing) throws IOException {
+    val builder =
+        SdkTracerProvider.builder()
+            .setResource(
+                Resource.getDefault()
+                    .merge(
+                        Resource.create(
+                            Attributes.of(AttributeKey.stringKey("service.name"), SERVICE_NAME))));
+    val exporter = createExporter(tracing);
+    if (exporter == null) {
+      builder.setSampler(Sampler.alwaysOff());
+    } else {
+      builder.addSpanProcessor(BatchSpanProcessor.builder(exporter).build());
+    }
+    return builder.build();
+  }
+
+  @Bean
+  public Tracer tracer(SdkTracerProvider tracerProvider) {
+    return tracerProvider.get(SERVICE_NAME);
+  }
+
+  private static SpanExporter createExporter(TracingProperties tracing) throws IOException {
+    if (tracing.getExporter() == null) {
+      return null;
+    }
+    switch (tracing.getExporter()) {
+      case OTLP:
+        // sent with the jdk http client, the kubernetes client pins okhttp to a version too old
+        return OtlpHttpSpanExporter.builder().setEndpoint(tracing.getOtlpEndpoint()).build();
+      case FILE:
+        return new FileSpanExporter(Path.of(tracing.getFilePath()));
+      default:
+        return null;
+    }
+  }
+}
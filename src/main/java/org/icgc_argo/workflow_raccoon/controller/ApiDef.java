@@ -25,10 +25,17 @@ import static org.springframework.http.MediaType.TEXT_PLAIN_VALUE;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
+import java.util.List;
 import org.icgc_argo.workflow_raccoon.model.MealPlan;
+import org.icgc_argo.workflow_raccoon.model.PassProgress;
 import org.icgc_argo.workflow_raccoon.model.RunUpdatesRequest;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import reactor.core.publisher.Mono;
 
 @Api(tags = RUN_TAG_NAME)
@@ -37,16 +44,46 @@ public interface ApiDef {
   @ApiOperation(
       value = "Trigger Garbage Collection Asynchronously",
       notes =
-          "Runs garbage collection asynchronous which will cause the runs to update and stale kubernetes resources to be cleaned up. Raccoon will fetch all runs in RUNNING state to compare with Kubernetes to determine if they need to be updated. The additional boolean parameters can be used to include runs in other active states.",
+          "Runs garbage collection asynchronous which will cause the runs to update and stale kubernetes resources to be cleaned up. Raccoon will fetch all runs in RUNNING state to compare with Kubernetes to determine if they need to be updated. The additional boolean parameters can be used to include runs in other active states. reconcileStrategy TERMINATED_PODS instead looks up only the runs of complete or failed run pods in rdpc (missing pods are then not detected), AUTO picks whichever side is smaller. Returns the id of the started, queued or joined pass, to follow or cancel it by. If a pass is already executing, a single follow-up pass is queued and further requests join it. Each pass is stopped once it exceeds its deadline and operations exceeding their timeout count as failed. Pass the id of a meal plan returned by dry-run to execute that plan instead of computing a new one.",
       response = String.class)
   @PostMapping(path = "/run", produces = TEXT_PLAIN_VALUE)
-  Mono<ResponseEntity<String>> run(RunUpdatesRequest req);
+  Mono<ResponseEntity<String>> run(
+      RunUpdatesRequest req,
+      @ApiParam("Id of a meal plan returned by a recent dry-run")
+          @RequestParam(value = "mealPlanId", required = false)
+          String mealPlanId);
 
   @ApiOperation(
       value = "Trigger Garbage Collection Dry Run Synchronously",
       notes =
-          "Does a dry-run of garbage collection synchronously. Returns a meal plan which lists all run updates and stale kubernetes resources that would be deleted. There are boolean parameters to include other Run states for the run updates.",
+          "Does a dry-run of garbage collection synchronously. Returns a meal plan which lists all run updates and stale kubernetes resources that would be deleted. There are boolean parameters to include other Run states for the run updates, and reconcileStrategy selects whether rdpc runs or terminated run pods are the starting point. Concurrent dry-runs with the same parameters share one computation and the meal plan is reused by dry-runs with the same parameters until it expires or is executed via its id.",
       response = MealPlan.class)
   @PostMapping(path = "/dry-run", produces = APPLICATION_JSON_VALUE)
   Mono<MealPlan> dryRun(RunUpdatesRequest req);
+
+  @ApiOperation(
+      value = "Get Active Passes",
+      notes = "Returns the progress of the executing pass followed by the queued one, if any.",
+      response = PassProgress.class,
+      responseContainer = "List")
+  @GetMapping(path = "/passes", produces = APPLICATION_JSON_VALUE)
+  Mono<List<PassProgress>> getActivePasses();
+
+  @ApiOperation(
+      value = "Get Pass Progress",
+      notes =
+          "Returns the state of an executing, queued or recently finished pass with the operations done, remaining and failed per phase of its meal plan and the overall throughput.",
+      response = PassProgress.class)
+  @GetMapping(path = "/passes/{passId}", produces = APPLICATION_JSON_VALUE)
+  Mono<ResponseEntity<PassProgress>> getPassProgress(
+      @ApiParam("Id returned when the pass was triggered") @PathVariable("passId") String passId);
+
+  @ApiOperation(
+      value = "Cancel Pass",
+      notes =
+          "Cancels an executing or queued pass. Operations already done are not undone, the operation in flight is abandoned and the pass is not resumed after a restart. A queued follow-up pass starts once the executing one is cancelled.",
+      response = String.class)
+  @DeleteMapping(path = "/passes/{passId}", produces = TEXT_PLAIN_VALUE)
+  Mono<ResponseEntity<String>> cancelPass(
+      @ApiParam("Id returned when the pass was triggered") @PathVariable("passId") String passId);
 }
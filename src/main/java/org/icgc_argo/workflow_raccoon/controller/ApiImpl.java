@@ -19,11 +19,15 @@
 
 package org.icgc_argo.workflow_raccoon.controller;
 
+import java.util.List;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import lombok.val;
 import org.icgc_argo.workflow_raccoon.model.MealPlan;
+import org.icgc_argo.workflow_raccoon.model.PassProgress;
 import org.icgc_argo.workflow_raccoon.model.RunUpdatesRequest;
 import org.icgc_argo.workflow_raccoon.service.RaccoonService;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Mono;
@@ -35,16 +39,48 @@ public class ApiImpl implements ApiDef {
   private final RaccoonService raccoonService;
 
   @Override
-  public Mono<ResponseEntity<String>> run(RunUpdatesRequest req) {
-    raccoonService
-        .prepareAndExecuteMealPlan(req)
-        .subscribe(successful -> log.info("Async cleanup completed successfully=" + successful));
-    return Mono.just(
-        ResponseEntity.ok("Raccoon started async cleanup! See logs for more details."));
+  public Mono<ResponseEntity<String>> run(RunUpdatesRequest req, String mealPlanId) {
+    if (mealPlanId != null) {
+      return Mono.just(
+          raccoonService
+              .triggerMealPlanExecution(mealPlanId)
+              .map(trigger -> ResponseEntity.ok(trigger.getMessage()))
+              .orElseGet(
+                  () ->
+                      ResponseEntity.status(HttpStatus.NOT_FOUND)
+                          .body("Meal plan " + mealPlanId + " not found, it may have expired.")));
+    }
+    val trigger = raccoonService.triggerMealPlanExecution(req);
+    log.info("Cleanup triggered: {}", trigger);
+    return Mono.just(ResponseEntity.ok(trigger.getMessage()));
   }
 
   @Override
   public Mono<MealPlan> dryRun(RunUpdatesRequest req) {
     return raccoonService.prepareMealPlan(req);
   }
+
+  @Override
+  public Mono<List<PassProgress>> getActivePasses() {
+    return Mono.just(raccoonService.getActivePasses());
+  }
+
+  @Override
+  public Mono<ResponseEntity<PassProgress>> getPassProgress(String passId) {
+    return Mono.just(
+        raccoonService
+            .getPassProgress(passId)
+            .map(ResponseEntity::ok)
+            .orElseGet(() -> ResponseEntity.notFound().build()));
+  }
+
+  @Override
+  public Mono<ResponseEntity<String>> cancelPass(String passId) {
+    if (raccoonService.cancelPass(passId)) {
+      return Mono.just(ResponseEntity.ok("Pass " + passId + " cancelled."));
+    }
+    return Mono.just(
+        ResponseEntity.status(HttpStatus.NOT_FOUND)
+            .body("Pass " + passId + " not found or already finished."));
+  }
 }
@@ -18,21 +18,72 @@
 
 package org.icgc_argo.workflow_raccoon.model;
 
+import static java.util.stream.Collectors.joining;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import java.util.List;
+import java.util.function.Function;
 import lombok.Builder;
 import lombok.Value;
-import org.icgc_argo.workflow_raccoon.model.kubernetes.ConfigMap;
+import lombok.extern.jackson.Jacksonized;
+import lombok.val;
 import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPod;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunResource;
 
 @Value
-@Builder
+@Builder(toBuilder = true)
+@Jacksonized
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class MealPlan {
+  String id;
+  RunUpdatesRequest request;
+  ReconcileStrategy
+      reconcileStrategy; // the one used, AUTO in the request resolves to the other two
   List<RunUpdate> runUpdates;
-  List<ConfigMap> staleConfigMaps;
+  List<RunResource> staleResources; // of every reaped kind, e.g. config maps
   List<RunPod> staleRunPods;
+  // runs as planning saw them, only recorded as observed by the pass executing the plan
+  @JsonIgnore @Builder.Default List<RunStateObservation> runStateObservations = List.of();
 
   public long getOperationsCount() {
-    return toLong(runUpdates.size() + staleConfigMaps.size() + staleRunPods.size());
+    return toLong(runUpdates.size() + staleResources.size() + staleRunPods.size());
+  }
+
+  /**
+   * Counts of each kind of operation with only the first few listed, for logging. Unlike toString
+   * it stays short however big the plan is and leaves the pod logs out.
+   */
+  public String summarize(int maxItems) {
+    return String.format(
+        "MealPlan(id=%s, reconcileStrategy=%s, runUpdates=%s, staleRunPods=%s, staleResources=%s)",
+        id,
+        reconcileStrategy,
+        summarize(
+            runUpdates,
+            runUpdate ->
+                runUpdate.getRunId()
+                    + " "
+                    + runUpdate.getCurrentState()
+                    + "->"
+                    + runUpdate.getNewState(),
+            maxItems),
+        summarize(staleRunPods, runPod -> runPod.getCluster() + "/" + runPod.getRunId(), maxItems),
+        summarize(
+            staleResources,
+            resource -> resource.getKind() + "/" + resource.getCluster() + "/" + resource.getName(),
+            maxItems));
+  }
+
+  private static <T> String summarize(
+      List<T> operations, Function<T, String> describe, int maxItems) {
+    val listed = operations.stream().limit(maxItems).map(describe).collect(joining(", "));
+    val unlisted = operations.size() - Math.min(operations.size(), maxItems);
+    return operations.size()
+        + " ["
+        + listed
+        + (unlisted > 0 ? ", +" + unlisted + " more" : "")
+        + "]";
   }
 
   private static long toLong(int a) {
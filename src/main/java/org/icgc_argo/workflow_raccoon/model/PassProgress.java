@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.model;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+import lombok.Builder;
+import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
+
+/** Snapshot of a garbage collection pass, as reported by the pass progress endpoints. */
+@Value
+@Builder
+@Jacksonized
+public class PassProgress {
+  public enum State {
+    QUEUED,
+    EXECUTING,
+    SUCCEEDED,
+    FAILED,
+    CANCELLED,
+    TIMED_OUT;
+
+    public boolean isFinished() {
+      return this != QUEUED && this != EXECUTING;
+    }
+  }
+
+  String passId;
+  String mealPlanId; // null until the meal plan is computed
+  State state;
+  OffsetDateTime queuedAt;
+  OffsetDateTime startedAt;
+  OffsetDateTime finishedAt;
+  Map<String, Phase> phases; // runUpdates, staleRunPods and staleResources, empty until planned
+  double operationsPerSecond;
+
+  @Value
+  @Builder
+  @Jacksonized
+  public static class Phase {
+    long total;
+    long done; // includes the failed and skipped ones
+    long failed;
+    long skipped; // left to the replica owning the run's shard
+
+    public long getRemaining() {
+      return total - done;
+    }
+  }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.val;
+
+/**
+ * Captured pod log, held deflated in a direct buffer outside the java heap, or in a temp file once
+ * it grows past the spill threshold. It is only inflated while being read, e.g. when a weblog event
+ * carrying it is serialized, so a burst of failed runs can't exhaust the heap. Serializes as a
+ * plain JSON string.
+ */
+@JsonSerialize(using = PodLog.Serializer.class)
+@JsonDeserialize(using = PodLog.Deserializer.class)
+public final class PodLog {
+  public static final PodLog EMPTY = of("");
+
+  private static final Cleaner SPILL_FILE_CLEANER = Cleaner.create();
+  private static final int BUFFER_SIZE = 8 * 1024;
+
+  private final long size; // utf-8 bytes once inflated
+  private final ByteBuffer buffer; // null once spilled
+  private final Path spillFile; // null unless spilled
+
+  private PodLog(long size, ByteBuffer buffer, Path spillFile) {
+    this.size = size;
+    this.buffer = buffer;
+    this.spillFile = spillFile;
+    if (spillFile != null) {
+      SPILL_FILE_CLEANER.register(this, new DeleteFile(spillFile));
+    }
+  }
+
+  public static PodLog of(@NonNull String log) {
+    return compress(new StringReader(log), Long.MAX_VALUE, null);
+  }
+
+  /**
+   * Deflates everything the reader returns. Once the deflated bytes exceed spillThresholdBytes they
+   * are moved to a temp file in spillDirectory (the default temp directory if null), deleted when
+   * the PodLog is garbage collected.
+   */
+  @SneakyThrows
+  public static PodLog compress(
+      @NonNull Reader log, long spillThresholdBytes, Path spillDirectory) {
+    val sink = new SpillingOutputStream(spillThresholdBytes, spillDirectory);
+    val counter = new CountingOutputStream(new DeflaterOutputStream(sink));
+    try (val writer = new OutputStreamWriter(counter, StandardCharsets.UTF_8)) {
+      log.transferTo(writer);
+    } catch (IOException | RuntimeException e) {
+      sink.discard();
+      throw e;
+    }
+    return new PodLog(counter.count, sink.toDirectBuffer(), sink.file);
+  }
+
+  /** Size of the log in UTF-8 bytes. */
+  public long getSize() {
+    return size;
+  }
+
+  public long getCompressedSize() {
+    return buffer != null ? buffer.capacity() : spillFile.toFile().length();
+  }
+
+  public boolean isSpilled() {
+    return spillFile != null;
+  }
+
+  /** Inflates the log as it is read, the caller closes the reader. */
+  @SneakyThrows
+  public Reader openReader() {
+    val compressed =
+        buffer != null
+            ? new ByteBufferInputStream(buffer.duplicate())
+            : Files.newInputStream(spillFile);
+    return new InputStreamReader(
+        new InflaterInputStream(compressed), StandardCharsets.UTF_8.newDecoder());
+  }
+
+  @SneakyThrows
+  public String asString() {
+    try (val reader = openReader()) {
+      val builder = new StringBuilder((int) Math.min(size, Integer.MAX_VALUE));
+      val chars = new char[BUFFER_SIZE];
+      for (int read; (read = reader.read(chars)) != -1; ) {
+        builder.append(chars, 0, read);
+      }
+      return builder.toString();
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof PodLog)) {
+      return false;
+    }
+    val other = (PodLog) o;
+    // deflating is deterministic, so equal logs have equal compressed bytes
+    return size == other.size && Arrays.equals(compressedBytes(), other.compressedBytes());
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(size);
+  }
+
+  @Override
+  public String toString() {
+    return "PodLog(size=" + size + ", compressedSize=" + getCompressedSize() + ")";
+  }
+
+  @SneakyThrows
+  private byte[] compressedBytes() {
+    if (buffer == null) {
+      return Files.readAllBytes(spillFile);
+    }
+    val bytes = new byte[buffer.capacity()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  static class Serializer extends StdSerializer<PodLog> {
+    Serializer() {
+      super(PodLog.class);
+    }
+
+    @Override
+    public void serialize(PodLog podLog, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      if (gen instanceof TokenBuffer) {
+        // token buffers can't take a reader
+        gen.writeString(podLog.asString());
+        return;
+      }
+      try (val reader = podLog.openReader()) {
+        gen.writeString(reader, -1);
+      }
+    }
+  }
+
+  static class Deserializer extends StdDeserializer<PodLog> {
+    Deserializer() {
+      super(PodLog.class);
+    }
+
+    @Override
+    public PodLog deserialize(JsonParser parser, DeserializationContext context)
+        throws IOException {
+      return of(parser.getValueAsString());
+    }
+  }
+
+  private static class DeleteFile implements Runnable {
+    private final Path file;
+
+    DeleteFile(Path file) {
+      this.file = file;
+    }
+
+    @Override
+    public void run() {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private static class CountingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private long count = 0;
+
+    CountingOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  /** Collects bytes on heap in small chunks, moving to a file past the threshold. */
+  private static class SpillingOutputStream extends OutputStream {
+    private final long spillThresholdBytes;
+    private final Path spillDirectory;
+
+    private byte[] bytes = new byte[BUFFER_SIZE];
+    private int length = 0;
+    private Path file = null;
+    private OutputStream fileOut = null;
+
+    SpillingOutputStream(long spillThresholdBytes, Path spillDirectory) {
+      this.spillThresholdBytes = spillThresholdBytes;
+      this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (fileOut == null && length + (long) len > spillThresholdBytes) {
+        file =
+            spillDirectory == null
+                ? Files.createTempFile("pod-log-", ".deflate")
+                : Files.createTempFile(spillDirectory, "pod-log-", ".deflate");
+        fileOut = Files.newOutputStream(file);
+        fileOut.write(bytes, 0, length);
+        bytes = null;
+      }
+      if (fileOut != null) {
+        fileOut.write(b, off, len);
+        return;
+      }
+      if (length + len > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + len));
+      }
+      System.arraycopy(b, off, bytes, length, len);
+      length += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (fileOut != null) {
+        fileOut.close();
+      }
+    }
+
+    ByteBuffer toDirectBuffer() {
+      if (file != null) {
+        return null;
+      }
+      val direct = ByteBuffer.allocateDirect(length);
+      direct.put(bytes, 0, length).flip();
+      return direct.asReadOnlyBuffer();
+    }
+
+    void discard() throws IOException {
+      close();
+      if (file != null) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      val read = Math.min(len, buffer.remaining());
+      buffer.get(b, off, read);
+      return read;
+    }
+  }
+}
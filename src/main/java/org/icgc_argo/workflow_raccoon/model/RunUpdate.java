@@ -22,9 +22,11 @@ import java.time.OffsetDateTime;
 import lombok.Builder;
 import lombok.NonNull;
 import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
 
 @Value
-@Builder
+@Builder(toBuilder = true)
+@Jacksonized
 public class RunUpdate {
   @NonNull String runId;
   @NonNull String sessionId;
@@ -33,5 +35,6 @@ public class RunUpdate {
   @NonNull WesStates newState;
   @NonNull OffsetDateTime startTime;
   @NonNull OffsetDateTime completeTime;
-  @NonNull String logs;
+  @NonNull PodLog logs;
+  double priority; // higher is relayed first within a pass
 }
@@ -18,11 +18,44 @@
 
 package org.icgc_argo.workflow_raccoon.model;
 
+import java.util.EnumSet;
+import java.util.Set;
 import lombok.Data;
+import lombok.val;
 
 @Data
 public class RunUpdatesRequest {
   private boolean includeInitializingRuns = false;
   private boolean includeQueuedRuns = false;
   private boolean includeCancellingRuns = false;
+  private ReconcileStrategy reconcileStrategy = ReconcileStrategy.ACTIVE_RUNS;
+
+  /** Rdpc run states the request reconciles. */
+  public Set<WesStates> includedStates() {
+    val states = EnumSet.of(WesStates.RUNNING);
+    if (includeInitializingRuns) {
+      states.add(WesStates.INITIALIZING);
+    }
+    if (includeQueuedRuns) {
+      states.add(WesStates.QUEUED);
+    }
+    if (includeCancellingRuns) {
+      states.add(WesStates.CANCELING);
+    }
+    return states;
+  }
+
+  /** Request covering every run state included by either this or the other request. */
+  public RunUpdatesRequest mergeWith(RunUpdatesRequest other) {
+    val merged = new RunUpdatesRequest();
+    merged.setIncludeInitializingRuns(includeInitializingRuns || other.includeInitializingRuns);
+    merged.setIncludeQueuedRuns(includeQueuedRuns || other.includeQueuedRuns);
+    merged.setIncludeCancellingRuns(includeCancellingRuns || other.includeCancellingRuns);
+    // the follow-up pass has to cover both, only the active runs strategy finds everything
+    merged.setReconcileStrategy(
+        reconcileStrategy == other.reconcileStrategy
+            ? reconcileStrategy
+            : ReconcileStrategy.ACTIVE_RUNS);
+    return merged;
+  }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.model.kubernetes;
+
+import java.util.Set;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+
+/**
+ * Picks the run pod an rdpc run is reconciled against when the same run id has a pod in more than
+ * one cluster, e.g. a run retried on the other cluster.
+ */
+public enum DuplicateRunResolution {
+  /** The pod started last, i.e. the latest attempt. */
+  LATEST_START,
+
+  /** A pod that is done over one still going, the latest started among equals. */
+  MOST_TERMINAL;
+
+  private static final Set<WesStates> TERMINAL_STATES =
+      Set.of(
+          WesStates.COMPLETE, WesStates.EXECUTOR_ERROR, WesStates.SYSTEM_ERROR, WesStates.CANCELED);
+
+  /** True if the candidate pod should replace the current one. */
+  boolean prefers(
+      long candidateAgeMillis,
+      WesStates candidateState,
+      long currentAgeMillis,
+      WesStates currentState) {
+    if (this == MOST_TERMINAL) {
+      val candidateTerminal = TERMINAL_STATES.contains(candidateState);
+      if (candidateTerminal != TERMINAL_STATES.contains(currentState)) {
+        return candidateTerminal;
+      }
+    }
+    return candidateAgeMillis > currentAgeMillis;
+  }
+}
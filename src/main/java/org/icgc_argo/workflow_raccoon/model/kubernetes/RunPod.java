@@ -22,13 +22,18 @@ import java.time.OffsetDateTime;
 import lombok.Builder;
 import lombok.NonNull;
 import lombok.Value;
+import lombok.extern.jackson.Jacksonized;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
 import org.icgc_argo.workflow_raccoon.model.WesStates;
 
 @Builder
+@Jacksonized
 @Value
 public class RunPod {
   @NonNull String runId;
+  String cluster; // null when unknown, the pod is then looked for in every cluster
   @NonNull OffsetDateTime age;
   @NonNull WesStates state;
-  @NonNull String log;
+  @NonNull PodLog log;
+  double priority; // higher is deleted first within a pass
 }
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.model.kubernetes;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+import lombok.NonNull;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+
+/**
+ * Columnar view of the run pods of every cluster, used while computing a meal plan. Ages are epoch
+ * millis, states are enum ordinals and run ids are found through an open addressing index, so each
+ * pod costs a few array slots instead of an object graph. Pod logs are not held at all, rows become
+ * {@link RunPod}s only once they make it into a meal plan.
+ *
+ * <p>Rows are either a run (wes- pod) or a task (nf- pod) of a run. Only runs are indexed since
+ * rdpc runs never map to tasks, and tasks are cleaned up together with their run.
+ *
+ * <p>Rows are unique by (cluster, pod name). A run id with pods in several clusters is indexed to
+ * the pod picked by the {@link DuplicateRunResolution}, the other pods stay in the table (and can
+ * be cleaned up) but are never reconciled. Such duplicates are counted rather than rejected.
+ *
+ * <p>Resource requests are summed over the containers of a pod, in cores and GiB, and 0 unless set.
+ */
+public class RunPodTable {
+  private static final WesStates[] STATES = WesStates.values();
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final DuplicateRunResolution duplicateRunResolution;
+  private final List<String> clusters = new ArrayList<>();
+  private final List<Integer> clusterSizes = new ArrayList<>();
+  private final Map<String, String> internedTaskRunIds = new HashMap<>();
+
+  private int size = 0;
+  private String[] runIds = new String[INITIAL_CAPACITY];
+  private long[] ages = new long[INITIAL_CAPACITY];
+  private byte[] states = new byte[INITIAL_CAPACITY];
+  private byte[] clusterIndexes = new byte[INITIAL_CAPACITY];
+  private boolean[] tasks = new boolean[INITIAL_CAPACITY];
+  private String[] taskRunIds = new String[INITIAL_CAPACITY]; // null for runs and orphan tasks
+  private boolean[] shadowed = new boolean[INITIAL_CAPACITY]; // runs losing to a duplicate
+  private float[] cpuRequests = new float[INITIAL_CAPACITY];
+  private float[] memoryRequests = new float[INITIAL_CAPACITY];
+
+  // row + 1 of each run by hash slot, 0 marks a free slot; kept at most half full
+  private int[] index = new int[INITIAL_CAPACITY];
+  private int runCount = 0;
+  private int duplicateRunCount = 0;
+
+  public RunPodTable() {
+    this(DuplicateRunResolution.LATEST_START);
+  }
+
+  public RunPodTable(@NonNull DuplicateRunResolution duplicateRunResolution) {
+    this.duplicateRunResolution = duplicateRunResolution;
+  }
+
+  /** Adds a run pod, returns its row. */
+  public int addRun(
+      @NonNull String cluster, @NonNull String runId, long ageMillis, @NonNull WesStates state) {
+    val slot = slotOf(runId);
+    if (index[slot] != 0) {
+      val current = index[slot] - 1;
+      duplicateRunCount++;
+      val row = append(cluster, runId, ageMillis, state);
+      if (duplicateRunResolution.prefers(ageMillis, state, ages[current], getState(current))) {
+        shadowed[current] = true;
+        index[slot] = row + 1;
+      } else {
+        shadowed[row] = true;
+      }
+      return row;
+    }
+    if ((runCount + 1) * 2 > index.length) {
+      rebuildIndex(index.length * 2);
+    }
+    val row = append(cluster, runId, ageMillis, state);
+    insert(index, runId, row);
+    runCount++;
+    return row;
+  }
+
+  /**
+   * Adds a task pod of the given run, or an orphan task if the run is unknown (null), returns its
+   * row.
+   */
+  public int addTask(
+      @NonNull String cluster,
+      @NonNull String podName,
+      String runId,
+      long ageMillis,
+      @NonNull WesStates state) {
+    val row = append(cluster, podName, ageMillis, state);
+    tasks[row] = true;
+    taskRunIds[row] = runId == null ? null : internedTaskRunIds.computeIfAbsent(runId, id -> id);
+    return row;
+  }
+
+  public void setResourceRequests(int row, double cpuCores, double memoryGiB) {
+    cpuRequests[row] = (float) cpuCores;
+    memoryRequests[row] = (float) memoryGiB;
+  }
+
+  public double getCpuRequests(int row) {
+    return cpuRequests[row];
+  }
+
+  public double getMemoryRequests(int row) {
+    return memoryRequests[row];
+  }
+
+  /** Share of all pods that are in the given cluster, 0 for an unknown cluster. */
+  public double getClusterShare(String cluster) {
+    val clusterIndex = clusters.indexOf(cluster);
+    return clusterIndex < 0 || size == 0 ? 0 : (double) clusterSizes.get(clusterIndex) / size;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Number of distinct run ids. */
+  public int getRunCount() {
+    return runCount;
+  }
+
+  /** Number of run pods sharing their run id with a pod in another cluster that won over them. */
+  public int getDuplicateRunCount() {
+    return duplicateRunCount;
+  }
+
+  /**
+   * Row of the run, the one picked among duplicates, or -1 if no run pod has that id. Tasks are
+   * never found.
+   */
+  public int indexOf(@NonNull String runId) {
+    return index[slotOf(runId)] - 1;
+  }
+
+  public String getRunId(int row) {
+    return runIds[row];
+  }
+
+  public long getAgeMillis(int row) {
+    return ages[row];
+  }
+
+  public OffsetDateTime getAge(int row) {
+    return OffsetDateTime.ofInstant(Instant.ofEpochMilli(ages[row]), ZoneOffset.UTC);
+  }
+
+  public WesStates getState(int row) {
+    return STATES[states[row]];
+  }
+
+  public String getCluster(int row) {
+    return clusters.get(clusterIndexes[row]);
+  }
+
+  public boolean isTask(int row) {
+    return tasks[row];
+  }
+
+  /** Ids of the runs whose (picked) pod is complete or failed. */
+  public List<String> getTerminatedRunIds() {
+    val runIds = new ArrayList<String>();
+    for (int row = 0; row < size; row++) {
+      if (!tasks[row] && !shadowed[row] && isTerminated(getState(row))) {
+        runIds.add(this.runIds[row]);
+      }
+    }
+    return runIds;
+  }
+
+  /**
+   * Age of the run tree a resource of the given run belongs to, that is the age of the run pod. The
+   * fallback is used when the run is unknown (null) or has no pod.
+   */
+  public long getRunTreeAgeMillis(String runId, long fallbackAgeMillis) {
+    if (runId == null) {
+      return fallbackAgeMillis;
+    }
+    val row = indexOf(runId);
+    return row < 0 ? fallbackAgeMillis : ages[row];
+  }
+
+  /**
+   * Pods of the run trees started before the given time, without their logs. A run tree is a run
+   * pod and all of its tasks, which go with the run. Orphan tasks go by their own age.
+   */
+  public List<RunPod> staleRunTrees(long epochMillis) {
+    return staleRunTrees(epochMillis, row -> 0);
+  }
+
+  /** Same as {@link #staleRunTrees(long)}, with the priority of deleting each row. */
+  public List<RunPod> staleRunTrees(long epochMillis, IntToDoubleFunction priorities) {
+    return staleRunTrees(epochMillis, -1, priorities);
+  }
+
+  /**
+   * Same as {@link #staleRunTrees(long, IntToDoubleFunction)}, plus the oldest completed run trees
+   * of each cluster holding more than maxCompletedPods pods of completed run trees, until that many
+   * are left. The quota is disabled when negative.
+   */
+  public List<RunPod> staleRunTrees(
+      long epochMillis, int maxCompletedPods, IntToDoubleFunction priorities) {
+    return staleRunTrees(epochMillis, maxCompletedPods, priorities, Set.of());
+  }
+
+  /**
+   * Same as {@link #staleRunTrees(long, int, IntToDoubleFunction)}, leaving out the run trees of
+   * the kept runs however old they are, e.g. runs whose pod log is still needed.
+   */
+  public List<RunPod> staleRunTrees(
+      long epochMillis,
+      int maxCompletedPods,
+      IntToDoubleFunction priorities,
+      Set<String> keptRunIds) {
+    val roots = new int[size];
+    val kept = new boolean[size]; // by root row
+    keptRunIds.forEach(
+        runId -> {
+          val row = indexOf(runId);
+          if (row >= 0) {
+            kept[row] = true;
+          }
+        });
+    val stale = new boolean[size]; // by root row
+    for (int row = 0; row < size; row++) {
+      roots[row] = rootOf(row);
+      if (!kept[roots[row]] && ages[roots[row]] < epochMillis) {
+        stale[roots[row]] = true;
+      }
+    }
+    if (maxCompletedPods >= 0) {
+      selectOverQuota(roots, kept, stale, maxCompletedPods);
+    }
+    val runPods = new ArrayList<RunPod>();
+    for (int row = 0; row < size; row++) {
+      if (stale[roots[row]]) {
+        runPods.add(toRunPod(row, PodLog.EMPTY, priorities.applyAsDouble(row)));
+      }
+    }
+    return runPods;
+  }
+
+  /** Marks the oldest completed run trees stale, one sorted pass over them all. */
+  private void selectOverQuota(int[] roots, boolean[] kept, boolean[] stale, int maxCompletedPods) {
+    val treeSizes = new int[size]; // by root row, 0 unless a completed run tree not yet stale
+    val completedPods = new int[clusters.size()];
+    for (int row = 0; row < size; row++) {
+      val root = roots[row];
+      if (!stale[root] && !kept[root] && isTerminated(getState(root))) {
+        treeSizes[root]++;
+        completedPods[clusterIndexes[root]]++;
+      }
+    }
+    val oldestFirst =
+        IntStream.range(0, size)
+            .filter(root -> treeSizes[root] > 0)
+            .boxed()
+            .sorted(Comparator.comparingLong(root -> ages[root]))
+            .mapToInt(Integer::intValue)
+            .toArray();
+    for (val root : oldestFirst) {
+      val cluster = clusterIndexes[root];
+      if (completedPods[cluster] > maxCompletedPods) {
+        stale[root] = true;
+        completedPods[cluster] -= treeSizes[root];
+      }
+    }
+  }
+
+  /** Row of the run pod a pod's run tree hangs off, the pod itself for runs and orphan tasks. */
+  private int rootOf(int row) {
+    if (!tasks[row] || taskRunIds[row] == null) {
+      return row;
+    }
+    val runRow = indexOf(taskRunIds[row]);
+    return runRow < 0 ? row : runRow;
+  }
+
+  private static boolean isTerminated(WesStates state) {
+    return state == WesStates.COMPLETE || state == WesStates.EXECUTOR_ERROR;
+  }
+
+  public RunPod toRunPod(int row, @NonNull PodLog log) {
+    return toRunPod(row, log, 0);
+  }
+
+  private RunPod toRunPod(int row, PodLog log, double priority) {
+    return RunPod.builder()
+        .runId(runIds[row])
+        .cluster(getCluster(row))
+        .age(getAge(row))
+        .state(getState(row))
+        .log(log)
+        .priority(priority)
+        .build();
+  }
+
+  private int append(String cluster, String podName, long ageMillis, WesStates state) {
+    if (size == runIds.length) {
+      grow();
+    }
+    runIds[size] = podName;
+    ages[size] = ageMillis;
+    states[size] = (byte) state.ordinal();
+    clusterIndexes[size] = clusterIndex(cluster);
+    clusterSizes.set(clusterIndexes[size], clusterSizes.get(clusterIndexes[size]) + 1);
+    return size++;
+  }
+
+  private byte clusterIndex(String cluster) {
+    var clusterIndex = clusters.indexOf(cluster);
+    if (clusterIndex < 0) {
+      clusterIndex = clusters.size();
+      clusters.add(cluster);
+      clusterSizes.add(0);
+    }
+    return (byte) clusterIndex;
+  }
+
+  private void grow() {
+    val capacity = runIds.length * 2;
+    runIds = Arrays.copyOf(runIds, capacity);
+    ages = Arrays.copyOf(ages, capacity);
+    states = Arrays.copyOf(states, capacity);
+    clusterIndexes = Arrays.copyOf(clusterIndexes, capacity);
+    tasks = Arrays.copyOf(tasks, capacity);
+    taskRunIds = Arrays.copyOf(taskRunIds, capacity);
+    shadowed = Arrays.copyOf(shadowed, capacity);
+    cpuRequests = Arrays.copyOf(cpuRequests, capacity);
+    memoryRequests = Arrays.copyOf(memoryRequests, capacity);
+  }
+
+  private void rebuildIndex(int slots) {
+    index = new int[slots];
+    for (int row = 0; row < size; row++) {
+      if (!tasks[row] && !shadowed[row]) {
+        insert(index, runIds[row], row);
+      }
+    }
+  }
+
+  /** Slot holding the run id, or the free slot it would go in. */
+  private int slotOf(String runId) {
+    val mask = index.length - 1;
+    var slot = hash(runId) & mask;
+    while (index[slot] != 0 && !runIds[index[slot] - 1].equals(runId)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static void insert(int[] index, String runId, int row) {
+    val mask = index.length - 1;
+    var slot = hash(runId) & mask;
+    while (index[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    index[slot] = row + 1;
+  }
+
+  private static int hash(String runId) {
+    // spread the bits, run ids share long prefixes and String.hashCode is weak in the low bits
+    val h = runId.hashCode() * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
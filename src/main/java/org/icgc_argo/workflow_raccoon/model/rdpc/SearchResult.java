@@ -35,5 +35,6 @@ public class SearchResult<T> {
   @JsonIgnoreProperties(ignoreUnknown = true)
   public static class Info {
     Boolean hasNextFrom;
+    Long totalHits; // only when requested
   }
 }
@@ -25,6 +25,7 @@ import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.Value;
 import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
 
 @Value
 public class NextflowEvent {
@@ -40,7 +41,7 @@ public class NextflowEvent {
       @NonNull String event,
       @NonNull OffsetDateTime startTime,
       @NonNull OffsetDateTime completeTime,
-      @NonNull String errorReport,
+      @NonNull PodLog errorReport,
       @NonNull Boolean success,
       @NonNull String repository) {
     this.runName = runName;
@@ -61,7 +62,7 @@ public class NextflowEvent {
   @Value
   @RequiredArgsConstructor
   public static class Workflow {
-    @NonNull String errorReport;
+    @NonNull PodLog errorReport;
     @NonNull Boolean success;
     @NonNull OffsetDateTime start;
     @NonNull OffsetDateTime complete;
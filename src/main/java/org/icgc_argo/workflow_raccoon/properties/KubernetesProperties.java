@@ -18,12 +18,11 @@
 
 package org.icgc_argo.workflow_raccoon.properties;
 
+import java.util.List;
 import lombok.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.ConstructorBinding;
 
-import java.util.List;
-
 @Value
 @ConstructorBinding
 @ConfigurationProperties("k8s")
@@ -18,11 +18,16 @@
 
 package org.icgc_argo.workflow_raccoon.properties;
 
+import lombok.AllArgsConstructor;
+import lombok.Builder;
 import lombok.Value;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.DuplicateRunResolution;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.ConstructorBinding;
 
 @Value
+@Builder(toBuilder = true)
+@AllArgsConstructor
 @ConstructorBinding
 @ConfigurationProperties("raccoon")
 public class RaccoonProperties {
@@ -30,4 +35,20 @@ public class RaccoonProperties {
   Integer configMapRotationDays;
   Integer kubeCleanUpDelaySec;
   Integer relayWeblogDelaySec;
+  Integer mealPlanCacheTtlSec;
+  Integer mealPlanCacheMaxSize;
+  String journalPath;
+  Integer journalSyncBatchSize;
+  Long podLogSpillThresholdBytes;
+  String podLogSpillPath;
+  DuplicateRunResolution duplicateRunResolution;
+  Integer passDeadlineSec;
+  Integer operationTimeoutSec;
+  Integer runStateDebounceObservations;
+  Integer runStateDebounceWindowSec;
+  Integer runStateDebounceMemorySec;
+  Integer maxCompletedPodsPerCluster;
+  Integer itemLogSampleRate;
+  Integer passSummaryIntervalSec;
+  Integer mealPlanLogMaxItems;
 }
@@ -30,4 +30,6 @@ public class RdpcProperties {
   String clientId;
   String clientSecret;
   String tokenUrl;
+  Integer tokenRefreshBeforeExpirySec;
+  ResilienceProperties resilience;
 }
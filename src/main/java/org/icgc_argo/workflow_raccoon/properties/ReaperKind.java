@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.properties;
+
+import lombok.Data;
+
+/** A kind of resource runs leave behind and how to tell when it is stale. */
+@Data
+public class ReaperKind {
+  String name; // short name used in meal plans and metrics, e.g. configmap
+  String group = ""; // api group, empty for the core group
+  String version = "v1";
+  String plural; // resource name in the api paths, e.g. configmaps
+  String namePrefix = "";
+  String labelSelector; // null or empty lists them all
+  String ageField = "metadata.creationTimestamp"; // resources without it are never stale
+  Integer rotationDays = -1; // -1 disables reaping the kind by age
+  Integer maxPerCluster =
+      -1; // the oldest beyond this many in a cluster are reaped too, -1 disables it
+  Boolean followRunTree = false; // reaped with the run pod rather than by its own age
+}
@@ -16,16 +16,15 @@
  * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
-package org.icgc_argo.workflow_raccoon.model.kubernetes;
+package org.icgc_argo.workflow_raccoon.properties;
 
-import java.time.OffsetDateTime;
-import lombok.Builder;
-import lombok.NonNull;
 import lombok.Value;
 
-@Builder
 @Value
-public class ConfigMap {
-  @NonNull String name;
-  @NonNull OffsetDateTime age;
+public class ResilienceProperties {
+  Integer retryMaxAttempts;
+  Long retryMinBackoffMs;
+  Long retryMaxBackoffMs;
+  Integer circuitBreakerFailureThreshold;
+  Long circuitBreakerOpenMs;
 }
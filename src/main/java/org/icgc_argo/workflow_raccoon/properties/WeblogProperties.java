@@ -27,4 +27,7 @@ import org.springframework.boot.context.properties.ConstructorBinding;
 @ConfigurationProperties("weblog")
 public class WeblogProperties {
   String url;
+  Integer relayedUpdatesCacheTtlSec;
+  Integer relayedUpdatesCacheMaxSize;
+  ResilienceProperties resilience;
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.properties.KubernetesProperties;
+import org.icgc_argo.workflow_raccoon.properties.RdpcProperties;
+import org.icgc_argo.workflow_raccoon.properties.WarmupProperties;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+/**
+ * Gets the rdpc token, opens connections to every cluster, the rdpc gateway and the weblog, and
+ * runs the weblog events through the serializer before the first pass has to. The replica is only
+ * reported ready, through the readiness group of the health endpoint, once that's done. Backends
+ * failing to warm up don't hold it back, they're listed in the health details.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BackendWarmup implements HealthIndicator {
+  private static final Duration MIN_TOKEN_REFRESH_DELAY = Duration.ofSeconds(10);
+  private static final Duration TOKEN_RETRY_DELAY = Duration.ofSeconds(30);
+  // tokens without an expiry are checked on now and then
+  private static final Duration UNKNOWN_EXPIRY_RECHECK = Duration.ofHours(1);
+
+  private final WarmupProperties properties;
+  private final KubernetesProperties kubernetesProperties;
+  private final RdpcProperties rdpcProperties;
+  private final KubernetesService kubernetesService;
+  private final RdpcGatewayService rdpcGatewayService;
+  private final RelayWeblogService relayWeblogService;
+
+  private final Map<String, String> failures = new ConcurrentHashMap<>();
+  private final Disposable.Composite running = Disposables.composite();
+  private volatile boolean warm = false;
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void warmUp() {
+    if (!properties.getEnabled()) {
+      warm = true;
+      return;
+    }
+    log.info("Warming up the backends");
+    // the refresh loop starts whatever the first fetch does, a failed one is retried shortly
+    val firstExpiry = new AtomicReference<>(Instant.now());
+    val backends =
+        Mono.when(
+            Flux.fromIterable(kubernetesProperties.getClientList())
+                .flatMap(
+                    clientDetails ->
+                        warmUp(
+                            "kubernetes." + clientDetails.getName(),
+                            Mono.fromRunnable(
+                                    () -> kubernetesService.warmUp(clientDetails.getName()))
+                                .subscribeOn(Schedulers.boundedElastic()))),
+            warmUp(
+                "rdpc",
+                firstToken(firstExpiry)
+                    .doFinally(signal -> refreshTokenBeforeExpiry(firstExpiry.get()))
+                    .then(rdpcGatewayService.warmUp())),
+            warmUp("weblog", relayWeblogService.warmUp(properties.getSerializations())));
+    running.add(
+        backends
+            .timeout(Duration.ofSeconds(properties.getTimeoutSec()))
+            .onErrorResume(
+                error -> {
+                  failures.put("timeout", error.toString());
+                  return Mono.empty();
+                })
+            .doFinally(
+                signal -> {
+                  warm = true;
+                  log.info("Warm-up done, failed for: {}", failures.keySet());
+                })
+            .subscribe());
+  }
+
+  @Override
+  public Health health() {
+    if (!warm) {
+      return Health.outOfService().withDetail("warm", false).build();
+    }
+    return Health.up().withDetail("warm", true).withDetails(failures).build();
+  }
+
+  @PreDestroy
+  public void stop() {
+    running.dispose();
+  }
+
+  private Mono<Void> warmUp(String backend, Mono<?> warmUp) {
+    return warmUp
+        .then()
+        .onErrorResume(
+            error -> {
+              log.warn("Failed to warm up {}: {}", backend, error.toString());
+              failures.put(backend, error.toString());
+              return Mono.empty();
+            });
+  }
+
+  private Mono<Instant> firstToken(AtomicReference<Instant> firstExpiry) {
+    return rdpcGatewayService
+        .refreshToken()
+        .switchIfEmpty(Mono.fromSupplier(() -> Instant.now().plus(UNKNOWN_EXPIRY_RECHECK)))
+        .doOnNext(firstExpiry::set);
+  }
+
+  /**
+   * Gets a new token as soon as the current one enters the refresh window, so no pass or relay ever
+   * waits for one.
+   */
+  private void refreshTokenBeforeExpiry(Instant expiresAt) {
+    val refreshWindow = Duration.ofSeconds(rdpcProperties.getTokenRefreshBeforeExpirySec());
+    running.add(
+        Mono.just(expiresAt)
+            .expand(
+                current ->
+                    Mono.delay(untilRefresh(current, refreshWindow))
+                        .then(
+                            Mono.defer(rdpcGatewayService::refreshToken)
+                                .switchIfEmpty(
+                                    Mono.fromSupplier(
+                                        () -> Instant.now().plus(UNKNOWN_EXPIRY_RECHECK)))
+                                .doOnError(
+                                    error ->
+                                        log.warn(
+                                            "Failed to refresh rdpc token: {}", error.toString()))
+                                .retryWhen(Retry.fixedDelay(Long.MAX_VALUE, TOKEN_RETRY_DELAY))))
+            .subscribe(next -> log.debug("Rdpc token expires at {}", next)));
+  }
+
+  private static Duration untilRefresh(Instant expiresAt, Duration refreshWindow) {
+    // a second into the window, so the token counts as expiring and gets replaced
+    val delay = Duration.between(Instant.now(), expiresAt).minus(refreshWindow).plusSeconds(1);
+    return delay.compareTo(MIN_TOKEN_REFRESH_DELAY) < 0 ? MIN_TOKEN_REFRESH_DELAY : delay;
+  }
+}
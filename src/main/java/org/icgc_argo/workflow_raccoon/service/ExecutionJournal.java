@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.stream.Collectors.toUnmodifiableList;
+import static org.icgc_argo.workflow_raccoon.utils.JacksonUtils.fromJsonString;
+import static org.icgc_argo.workflow_raccoon.utils.JacksonUtils.writeJson;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Optional;
+import javax.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.MealPlan;
+import org.icgc_argo.workflow_raccoon.model.RunUpdate;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPod;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunResource;
+import org.icgc_argo.workflow_raccoon.properties.RaccoonProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Append only journal of the meal plan being executed, one json record per line. The plan is
+ * written (and synced) before execution starts, every completed operation is appended and synced in
+ * batches, and the end of the plan truncates the file. Whatever is found in the journal on startup
+ * is therefore an interrupted plan, and only its operations without a completion record need to be
+ * executed again. Disabled when no journal path is configured.
+ */
+@Slf4j
+@Component
+public class ExecutionJournal {
+  private static final String PLANNED = "PLANNED";
+  private static final String DONE = "DONE";
+
+  private final Path path;
+  private final int syncBatchSize;
+
+  private FileChannel channel;
+  private int unsyncedRecords = 0;
+
+  public ExecutionJournal(RaccoonProperties properties) {
+    val journalPath = properties.getJournalPath();
+    this.path = journalPath == null || journalPath.isBlank() ? null : Path.of(journalPath);
+    this.syncBatchSize = Math.max(1, properties.getJournalSyncBatchSize());
+  }
+
+  public boolean isEnabled() {
+    return path != null;
+  }
+
+  /** Reads back the operations of an interrupted meal plan that never completed. */
+  public synchronized Optional<MealPlan> recoverInterruptedMealPlan() {
+    if (!isEnabled() || !Files.exists(path)) {
+      return Optional.empty();
+    }
+    MealPlan planned = null;
+    val done = new HashSet<String>();
+    try (val lines = Files.lines(path, UTF_8)) {
+      for (val line : (Iterable<String>) lines::iterator) {
+        if (line.isBlank()) {
+          continue;
+        }
+        val record = fromJsonString(line, JournalRecord.class);
+        if (PLANNED.equals(record.getType())) {
+          planned = record.getMealPlan();
+          done.clear();
+        } else if (DONE.equals(record.getType())) {
+          done.add(record.getOperation());
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      // a crash can leave a torn last line, everything before it is still usable
+      log.warn("Stopped reading execution journal {} early: {}", path, e.getMessage());
+    }
+    if (planned == null) {
+      return Optional.empty();
+    }
+    val remaining =
+        planned
+            .toBuilder()
+            .runUpdates(
+                planned.getRunUpdates().stream()
+                    .filter(runUpdate -> !done.contains(operationOf(runUpdate)))
+                    .collect(toUnmodifiableList()))
+            .staleRunPods(
+                planned.getStaleRunPods().stream()
+                    .filter(runPod -> !done.contains(operationOf(runPod)))
+                    .collect(toUnmodifiableList()))
+            .staleResources(
+                planned.getStaleResources().stream()
+                    .filter(resource -> !done.contains(operationOf(resource)))
+                    .collect(toUnmodifiableList()))
+            .build();
+    log.info(
+        "Recovered interrupted meal plan {} with {} of {} operations outstanding",
+        remaining.getId(),
+        remaining.getOperationsCount(),
+        planned.getOperationsCount());
+    return Optional.of(remaining);
+  }
+
+  /** Starts a new journal for the meal plan, replacing whatever was recorded before. */
+  public synchronized void begin(MealPlan mealPlan) {
+    if (!isEnabled()) {
+      return;
+    }
+    try {
+      closeChannel();
+      Files.createDirectories(path.toAbsolutePath().getParent());
+      Files.deleteIfExists(path);
+      channel = FileChannel.open(path, CREATE, WRITE, APPEND);
+      append(new JournalRecord(PLANNED, mealPlan, null));
+      sync();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to start execution journal " + path, e);
+    }
+  }
+
+  public void completed(RunUpdate runUpdate) {
+    recordDone(operationOf(runUpdate));
+  }
+
+  public void completed(RunPod runPod) {
+    recordDone(operationOf(runPod));
+  }
+
+  public void completed(RunResource resource) {
+    recordDone(operationOf(resource));
+  }
+
+  /** Meal plan execution finished, nothing is left to resume. */
+  public synchronized void end() {
+    if (!isEnabled()) {
+      return;
+    }
+    try {
+      closeChannel();
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      log.warn("Failed to clear execution journal {}", path, e);
+    }
+  }
+
+  @PreDestroy
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      sync();
+    }
+    closeChannel();
+  }
+
+  private synchronized void recordDone(String operation) {
+    if (channel == null) {
+      return;
+    }
+    try {
+      append(new JournalRecord(DONE, null, operation));
+      if (++unsyncedRecords >= syncBatchSize) {
+        sync();
+      }
+    } catch (IOException e) {
+      // losing a completion record only means the operation is repeated after a restart
+      log.warn("Failed to journal completed operation {}", operation, e);
+    }
+  }
+
+  /** Streams the record into the journal, the pod logs it carries stay compressed until then. */
+  private void append(JournalRecord record) throws IOException {
+    // not closed, that would close the channel
+    val out = Channels.newOutputStream(channel);
+    writeJson(out, record);
+    out.write('\n');
+  }
+
+  private void sync() throws IOException {
+    channel.force(false);
+    unsyncedRecords = 0;
+  }
+
+  private void closeChannel() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  private static String operationOf(RunUpdate runUpdate) {
+    return "runUpdate/" + runUpdate.getRunId();
+  }
+
+  private static String operationOf(RunPod runPod) {
+    return "pod/" + inCluster(runPod.getCluster()) + runPod.getRunId();
+  }
+
+  private static String operationOf(RunResource resource) {
+    return resource.getKind() + "/" + inCluster(resource.getCluster()) + resource.getName();
+  }
+
+  private static String inCluster(String cluster) {
+    return cluster == null ? "" : cluster + "/";
+  }
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  private static class JournalRecord {
+    String type;
+    MealPlan mealPlan;
+    String operation;
+  }
+}
@@ -19,23 +19,54 @@
 package org.icgc_argo.workflow_raccoon.service;
 
 import static java.time.ZonedDateTime.parse;
-import static java.util.stream.Collectors.toUnmodifiableList;
 
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.DeletionPropagation;
+import io.fabric8.kubernetes.api.model.GenericKubernetesResource;
+import io.fabric8.kubernetes.api.model.ListOptionsBuilder;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.api.model.OwnerReference;
 import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.Quantity;
 import io.fabric8.kubernetes.client.ConfigBuilder;
 import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClientException;
-
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.kubernetes.client.WatcherException;
+import io.fabric8.kubernetes.client.dsl.base.ResourceDefinitionContext;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import javax.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
 import org.icgc_argo.workflow_raccoon.model.WesStates;
-import org.icgc_argo.workflow_raccoon.model.kubernetes.ConfigMap;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.DuplicateRunResolution;
 import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPod;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPodTable;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunResource;
 import org.icgc_argo.workflow_raccoon.properties.KubernetesClientDetails;
 import org.icgc_argo.workflow_raccoon.properties.KubernetesProperties;
+import org.icgc_argo.workflow_raccoon.properties.RaccoonProperties;
+import org.icgc_argo.workflow_raccoon.properties.ReaperKind;
+import org.icgc_argo.workflow_raccoon.properties.ReaperProperties;
+import org.icgc_argo.workflow_raccoon.utils.LogSampler;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.scheduler.Schedulers;
 
 @Slf4j
 @Service
@@ -43,186 +74,480 @@ public class KubernetesService {
   private static final String RUNNING = "RUNNING";
   private static final String SUCCEEDED = "SUCCEEDED";
   private static final String FAILED = "FAILED";
+  private static final String PENDING = "PENDING";
+  private static final double GIB = 1024 * 1024 * 1024;
+  // waiting reasons of containers that won't start without someone fixing the pod spec or image
+  private static final Set<String> UNSTARTABLE_CONTAINER_REASONS =
+      Set.of(
+          "ErrImagePull",
+          "ImagePullBackOff",
+          "InvalidImageName",
+          "CreateContainerConfigError",
+          "CreateContainerError",
+          "CrashLoopBackOff");
 
   private static final String WORKFLOW_PARENT_POD_PREFIX = "wes-";
   private static final String WORKFLOW_CHILD_POD_PREFIX = "nf-";
-  private static final String WORKFLOW_CONFIGMAP_PREFIX = "nf-config-";
+
+  // nextflow labels the task pods and config maps of a run with the run name, i.e. the wes- id
+  private static final String RUN_NAME_LABEL = "runName";
+
+  private static final long LIST_PAGE_SIZE = 500L;
+  private static final Duration WATCH_RETRY_DELAY = Duration.ofSeconds(10);
+
+  private static final String POD_KIND = "pod";
+  private static final ResourceDefinitionContext POD_CONTEXT =
+      new ResourceDefinitionContext.Builder()
+          .withGroup("")
+          .withVersion("v1")
+          .withPlural("pods")
+          .withNamespaced(true)
+          .build();
 
   private final KubernetesProperties properties;
+  private final ReaperProperties reaperProperties;
+  private final long podLogSpillThresholdBytes;
+  private final Path podLogSpillDirectory;
+  private final DuplicateRunResolution duplicateRunResolution;
+  private final RaccoonMetrics metrics;
+  private final LogSampler deletionLogs;
+
+  // one client per cluster, they are thread safe and each keeps its own connection pool
+  private final Map<String, DefaultKubernetesClient> clients = new ConcurrentHashMap<>();
+  private boolean clientsClosed;
 
-  public KubernetesService(KubernetesProperties properties) {
+  public KubernetesService(
+      KubernetesProperties properties,
+      ReaperProperties reaperProperties,
+      RaccoonProperties raccoonProperties,
+      RaccoonMetrics metrics) {
     this.properties = properties;
-    //this.client = createKubernetesClient(properties);
+    this.reaperProperties = reaperProperties;
+    this.podLogSpillThresholdBytes = raccoonProperties.getPodLogSpillThresholdBytes();
+    val spillPath = raccoonProperties.getPodLogSpillPath();
+    this.podLogSpillDirectory =
+        spillPath == null || spillPath.isBlank() ? null : Path.of(spillPath);
+    this.duplicateRunResolution =
+        raccoonProperties.getDuplicateRunResolution() == null
+            ? DuplicateRunResolution.LATEST_START
+            : raccoonProperties.getDuplicateRunResolution();
+    this.metrics = metrics;
+    this.deletionLogs = new LogSampler(raccoonProperties.getItemLogSampleRate());
+    // this.client = createKubernetesClient(properties);
     log.info("KubernetesService is ready");
   }
 
-  public Boolean deletePod(RunPod runPod, KubernetesClientDetails clientDetails) {
-    log.info("Trying to remove pod {}", runPod.getRunId());
-    val deleted =
-        createKubernetesClient(clientDetails)
-            .pods()
-            .inNamespace(clientDetails.getRunsNamespace())
-            .withName(runPod.getRunId())
-            .delete();
-    if (deleted) {
-      log.info("Deleted pod {}", runPod.getRunId());
-    } else {
-      log.info("Failed to delete pod {}", runPod.getRunId());
+  /** Deletes the pod in its own cluster, or in all of them if that isn't known. */
+  public Boolean deleteRunPod(RunPod runPod) {
+    return delete(POD_KIND, POD_CONTEXT, runPod.getRunId(), runPod.getCluster());
+  }
+
+  /** Deletes the resource in its own cluster, or in all of them if that isn't known. */
+  public Boolean deleteRunResource(RunResource resource) {
+    val kind = getReaperKind(resource.getKind());
+    return delete(kind.getName(), toContext(kind), resource.getName(), resource.getCluster());
+  }
+
+  private boolean delete(
+      String kind, ResourceDefinitionContext context, String name, String cluster) {
+    log.debug("Trying to remove {} {}", kind, name);
+    val clusters =
+        cluster == null ? properties.getClientList() : List.of(getClientDetails(cluster));
+    boolean deleted = false;
+    for (val clientDetails : clusters) {
+      val deletedInCluster =
+          metrics.recordDeletion(
+              clientDetails.getName(),
+              kind,
+              () ->
+                  getKubernetesClient(clientDetails)
+                      .genericKubernetesResources(context)
+                      .inNamespace(clientDetails.getRunsNamespace())
+                      .withName(name)
+                      // the pods of a job are not deleted along with it otherwise
+                      .withPropagationPolicy(DeletionPropagation.BACKGROUND)
+                      .delete());
+      if (deletedInCluster) {
+        deletionLogs.log(log, "Deleted {} {} in cluster {}", kind, name, clientDetails.getName());
+      } else {
+        log.info("Failed to delete {} {} in cluster {}", kind, name, clientDetails.getName());
+      }
+      deleted |= deletedInCluster;
     }
     return deleted;
   }
 
-  public Boolean deleteConfigMap(ConfigMap configMap, KubernetesClientDetails clientDetails) {
-    log.info("Trying to remove config map {}", configMap.getName());
-
-    val deleted =
-        createKubernetesClient(clientDetails)
-            .configMaps()
-            .inNamespace(clientDetails.getRunsNamespace())
-            .withName(configMap.getName())
-            .delete();
+  /**
+   * Resources of every reaped kind in every cluster, listed a page at a time through the same
+   * generic client whatever their kind. Kinds with neither a rotation nor a quota are not listed at
+   * all.
+   */
+  public List<RunResource> getAllCurrentRunResources() {
+    val resources = new ArrayList<RunResource>();
+    for (val kind : reaperProperties.getKinds()) {
+      if (kind.getRotationDays() < 0 && kind.getMaxPerCluster() < 0) {
+        continue;
+      }
+      val context = toContext(kind);
+      val labelSelector =
+          kind.getLabelSelector() == null || kind.getLabelSelector().isBlank()
+              ? null
+              : kind.getLabelSelector();
+      for (val clientDetails : properties.getClientList()) {
+        val client = getKubernetesClient(clientDetails);
+        metrics.timeClusterList(
+            clientDetails.getName(),
+            kind.getName(),
+            () -> {
+              String continueToken = null;
+              do {
+                val page =
+                    client
+                        .genericKubernetesResources(context)
+                        .inNamespace(clientDetails.getRunsNamespace())
+                        .list(
+                            new ListOptionsBuilder()
+                                .withLabelSelector(labelSelector)
+                                .withLimit(LIST_PAGE_SIZE)
+                                .withContinue(continueToken)
+                                .build());
+                page.getItems().stream()
+                    .filter(item -> item.getMetadata().getName().startsWith(kind.getNamePrefix()))
+                    .map(item -> toRunResource(kind, item, clientDetails.getName()))
+                    .flatMap(Optional::stream)
+                    .forEach(resources::add);
+                continueToken =
+                    page.getMetadata() == null ? null : page.getMetadata().getContinue();
+              } while (continueToken != null && !continueToken.isEmpty());
+              return resources;
+            });
+      }
+    }
+    return resources;
+  }
 
-    if (deleted) {
-      log.info("Deleted config map {}", configMap.getName());
-    } else {
-      log.info("Failed to delete config map {}", configMap.getName());
+  /**
+   * Run pods of every cluster without their logs, listed a page at a time so that only one page of
+   * fabric8 pods is ever held in memory. Logs are fetched on demand with {@link #getPodLog}.
+   */
+  public RunPodTable getAllCurrentRunPodTable() {
+    val table = new RunPodTable(duplicateRunResolution);
+    for (val clientDetails : properties.getClientList()) {
+      val client = getKubernetesClient(clientDetails);
+      metrics.timeClusterList(
+          clientDetails.getName(),
+          POD_KIND,
+          () -> {
+            String continueToken = null;
+            do {
+              val page =
+                  client
+                      .pods()
+                      .list(
+                          new ListOptionsBuilder()
+                              .withLimit(LIST_PAGE_SIZE)
+                              .withContinue(continueToken)
+                              .build());
+              page.getItems().stream()
+                  .filter(KubernetesService::isRunPod)
+                  .forEach(pod -> addRunPod(table, clientDetails.getName(), pod));
+              continueToken = page.getMetadata() == null ? null : page.getMetadata().getContinue();
+            } while (continueToken != null && !continueToken.isEmpty());
+            return table;
+          });
     }
-    return deleted;
+    if (table.getDuplicateRunCount() > 0) {
+      log.warn(
+          "Found {} run pods sharing their run id with a pod in another cluster, using {}",
+          table.getDuplicateRunCount(),
+          duplicateRunResolution);
+    }
+    metrics.recordDuplicateRuns(table.getDuplicateRunCount());
+    return table;
   }
 
+  /**
+   * Watches the wes- pods of every cluster from now on and hands those reaching Succeeded or Failed
+   * to the handler, along with their cluster. A watch closed by the api server, e.g. once its
+   * resource version expired, restarts from the current one: terminations in between are left to
+   * the next pass. Disposing the result stops all watches.
+   */
+  public Disposable watchTerminatedRunPods(BiConsumer<String, Pod> onTerminated) {
+    val watches = Disposables.composite();
+    for (val clientDetails : properties.getClientList()) {
+      // the client is shared with passes, it is closed along with the others on shutdown
+      watchTerminatedRunPods(
+          clientDetails.getName(), getKubernetesClient(clientDetails), onTerminated, watches);
+    }
+    return watches;
+  }
 
-  public Boolean deleteAllPod(RunPod runPod) {
-    log.info("Trying to remove pod {}", runPod.getRunId());
-    val clients = createKubernetesClient();
-    boolean deleted = false;
-    for (val client : clients) {
-      deleted =
+  private void watchTerminatedRunPods(
+      String cluster,
+      DefaultKubernetesClient client,
+      BiConsumer<String, Pod> onTerminated,
+      Disposable.Composite watches) {
+    if (watches.isDisposed()) {
+      return;
+    }
+    try {
+      val resourceVersion =
           client
               .pods()
-              .inNamespace(client.getConfiguration().getNamespace())
-              .withName(runPod.getRunId())
-              .delete();
-      if (deleted) {
-        log.info("Deleted pod {}", runPod.getRunId());
-      } else {
-        log.info("Failed to delete pod {}", runPod.getRunId());
-      }
+              .list(new ListOptionsBuilder().withLimit(1L).build())
+              .getMetadata()
+              .getResourceVersion();
+      val watch =
+          client
+              .pods()
+              .watch(
+                  new ListOptionsBuilder().withResourceVersion(resourceVersion).build(),
+                  new Watcher<>() {
+                    @Override
+                    public void eventReceived(Action action, Pod pod) {
+                      if (action != Action.DELETED
+                          && pod.getMetadata().getName().startsWith(WORKFLOW_PARENT_POD_PREFIX)
+                          && isTerminated(pod)) {
+                        onTerminated.accept(cluster, pod);
+                      }
+                    }
+
+                    @Override
+                    public void onClose(WatcherException cause) {
+                      log.warn(
+                          "Watch of run pods in cluster {} closed, restarting it: {}",
+                          cluster,
+                          cause.getMessage());
+                      watchTerminatedRunPods(cluster, client, onTerminated, watches);
+                    }
+                  });
+      watches.add(watch::close);
+      log.info("Watching run pods in cluster {} from version {}", cluster, resourceVersion);
+    } catch (KubernetesClientException e) {
+      log.error(
+          "Failed to watch run pods in cluster {}, retrying in {}: {}",
+          cluster,
+          WATCH_RETRY_DELAY,
+          e.getMessage());
+      Schedulers.boundedElastic()
+          .schedule(
+              () -> watchTerminatedRunPods(cluster, client, onTerminated, watches),
+              WATCH_RETRY_DELAY.toMillis(),
+              TimeUnit.MILLISECONDS);
     }
-    return deleted;
   }
 
-  public Boolean deleteAllConfigMap(ConfigMap configMap) {
-    log.info("Trying to remove config map {}", configMap.getName());
-    val clients = createKubernetesClient();
-    boolean deleted = false;
-    for (val client : clients) {
-      deleted =
-          client
-              .configMaps()
-              .inNamespace(client.getConfiguration().getNamespace())
-              .withName(configMap.getName())
-              .delete();
+  private static boolean isTerminated(Pod pod) {
+    val phase = pod.getStatus() == null ? null : pod.getStatus().getPhase();
+    return SUCCEEDED.equalsIgnoreCase(phase) || FAILED.equalsIgnoreCase(phase);
+  }
 
-      if (deleted) {
-        log.info("Deleted config map {}", configMap.getName());
-      } else {
-        log.info("Failed to delete config map {}", configMap.getName());
-      }
-    }
+  /** Lists a single pod of the cluster, creating its client and opening a pooled connection. */
+  public void warmUp(String cluster) {
+    getKubernetesClient(getClientDetails(cluster))
+        .pods()
+        .list(new ListOptionsBuilder().withLimit(1L).build());
+  }
 
-    return deleted;
+  public PodLog getPodLog(String podName, String cluster) {
+    return getPodLog(podName, cluster, getKubernetesClient(getClientDetails(cluster)));
+  }
+
+  private KubernetesClientDetails getClientDetails(String cluster) {
+    return properties.getClientList().stream()
+        .filter(details -> details.getName().equals(cluster))
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("Unknown cluster " + cluster));
+  }
+
+  private PodLog getPodLog(String podName, String cluster, DefaultKubernetesClient client) {
+    return metrics.timePodLog(
+        cluster,
+        () -> {
+          try (val reader =
+              client
+                  .pods()
+                  .inNamespace(client.getConfiguration().getNamespace())
+                  .withName(podName)
+                  .getLogReader()) {
+            return PodLog.compress(reader, podLogSpillThresholdBytes, podLogSpillDirectory);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
   }
 
-  public List<ConfigMap> getCurrentRunConfigMaps(KubernetesClientDetails clientDetails) {
-    return createKubernetesClient(clientDetails).configMaps().list().getItems().stream()
-        .filter(
-            configMap -> configMap.getMetadata().getName().startsWith(WORKFLOW_CONFIGMAP_PREFIX))
-        .map(
-            configMap ->
-                ConfigMap.builder()
-                    .name(configMap.getMetadata().getName())
-                    .age(parse(configMap.getMetadata().getCreationTimestamp()).toOffsetDateTime())
-                    .build())
-        .collect(toUnmodifiableList());
+  private static boolean isRunPod(Pod pod) {
+    return pod.getMetadata().getName().startsWith(WORKFLOW_PARENT_POD_PREFIX)
+        || pod.getMetadata().getName().startsWith(WORKFLOW_CHILD_POD_PREFIX);
   }
 
-  public List<RunPod> getCurrentRunPods(KubernetesClientDetails clientDetails) {
-    val client = createKubernetesClient(clientDetails);
-    return client.pods().list().getItems().stream()
-        .filter(
-            pod ->
-                pod.getMetadata().getName().startsWith(WORKFLOW_PARENT_POD_PREFIX)
-                    || pod.getMetadata().getName().startsWith(WORKFLOW_CHILD_POD_PREFIX))
-        .map(
-            pod ->
-                RunPod.builder()
-                    .runId(pod.getMetadata().getName())
-                    .state(getRunExecutorState(pod))
-                    .age(parse(pod.getStatus().getStartTime()).toOffsetDateTime())
-                    .log(getPodLog(pod.getMetadata().getName(),client))
-                    .build())
-        .collect(toUnmodifiableList());
+  static void addRunPod(RunPodTable table, String cluster, Pod pod) {
+    val name = pod.getMetadata().getName();
+    val age = parse(pod.getStatus().getStartTime()).toInstant().toEpochMilli();
+    val row =
+        name.startsWith(WORKFLOW_PARENT_POD_PREFIX)
+            ? table.addRun(cluster, name, age, getRunExecutorState(pod))
+            : table.addTask(
+                cluster, name, getRunName(pod.getMetadata()), age, getRunExecutorState(pod));
+    table.setResourceRequests(
+        row, getResourceRequests(pod, "cpu"), getResourceRequests(pod, "memory") / GIB);
   }
 
-  public List<ConfigMap> getAllCurrentRunConfigMaps() {
-    val clients = createKubernetesClient();
-    List<ConfigMap> currentConfigMaps = new ArrayList<>();
-    for (val client : clients) {
-      currentConfigMaps.addAll(client.configMaps().list().getItems().stream()
-          .filter(
-              configMap -> configMap.getMetadata().getName().startsWith(WORKFLOW_CONFIGMAP_PREFIX))
-          .map(
-              configMap ->
-                  ConfigMap.builder()
-                      .name(configMap.getMetadata().getName())
-                      .age(parse(configMap.getMetadata().getCreationTimestamp()).toOffsetDateTime())
-                      .build())
-          .collect(toUnmodifiableList()));
+  /** Sum of the requests of the pod's containers, in cores or bytes. */
+  private static double getResourceRequests(Pod pod, String resource) {
+    if (pod.getSpec() == null || pod.getSpec().getContainers() == null) {
+      return 0;
+    }
+    return pod.getSpec().getContainers().stream()
+        .map(Container::getResources)
+        .filter(resources -> resources != null && resources.getRequests() != null)
+        .map(resources -> resources.getRequests().get(resource))
+        .filter(Objects::nonNull)
+        .mapToDouble(quantity -> Quantity.getAmountInBytes(quantity).doubleValue())
+        .sum();
+  }
 
+  /** Run a task pod or config map belongs to, from its label or else a wes- pod owning it. */
+  private static String getRunName(ObjectMeta metadata) {
+    val labels = metadata.getLabels();
+    if (labels != null && labels.containsKey(RUN_NAME_LABEL)) {
+      return labels.get(RUN_NAME_LABEL);
     }
-    return currentConfigMaps;
+    if (metadata.getOwnerReferences() == null) {
+      return null;
+    }
+    return metadata.getOwnerReferences().stream()
+        .map(OwnerReference::getName)
+        .filter(owner -> owner.startsWith(WORKFLOW_PARENT_POD_PREFIX))
+        .findFirst()
+        .orElse(null);
+  }
+
+  private ReaperKind getReaperKind(String name) {
+    return reaperProperties.getKinds().stream()
+        .filter(kind -> kind.getName().equals(name))
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("Unknown reaper kind " + name));
+  }
+
+  private static ResourceDefinitionContext toContext(ReaperKind kind) {
+    return new ResourceDefinitionContext.Builder()
+        .withGroup(kind.getGroup())
+        .withVersion(kind.getVersion())
+        .withPlural(kind.getPlural())
+        .withNamespaced(true)
+        .build();
   }
 
-  public List<RunPod> getAllCurrentRunPods() {
-    val clients = createKubernetesClient();
-    List<RunPod> currentPods = new ArrayList<>();
-
-    for (val client : clients) {
-      currentPods.addAll(client.pods().list().getItems().stream()
-          .filter(
-              pod ->
-                  pod.getMetadata().getName().startsWith(WORKFLOW_PARENT_POD_PREFIX)
-                      || pod.getMetadata().getName().startsWith(WORKFLOW_CHILD_POD_PREFIX))
-          .map(
-              pod ->
-                  RunPod.builder()
-                      .runId(pod.getMetadata().getName())
-                      .state(getRunExecutorState(pod))
-                      .age(parse(pod.getStatus().getStartTime()).toOffsetDateTime())
-                      .log(getPodLog(pod.getMetadata().getName(), client))
-                      .build())
-          .collect(toUnmodifiableList()));
+  /** Empty when the resource has no age yet, e.g. a job that hasn't completed. */
+  static Optional<RunResource> toRunResource(
+      ReaperKind kind, GenericKubernetesResource resource, String cluster) {
+    val age = getField(resource, kind.getAgeField());
+    if (age == null) {
+      return Optional.empty();
     }
-    return currentPods;
+    return Optional.of(
+        RunResource.builder()
+            .kind(kind.getName())
+            .name(resource.getMetadata().getName())
+            .cluster(cluster)
+            .age(parse(age).toOffsetDateTime())
+            .runId(getRunName(resource.getMetadata()))
+            .build());
   }
 
-  private String getPodLog(String podName, DefaultKubernetesClient client) {
-    return client.pods().inNamespace(client.getConfiguration().getNamespace()).withName(podName).getLog();
+  /** String at the dotted path of the resource, e.g. status.completionTime, or null. */
+  private static String getField(GenericKubernetesResource resource, String path) {
+    if (path.equals("metadata.creationTimestamp")) {
+      return resource.getMetadata().getCreationTimestamp();
+    }
+    Object value = resource.getAdditionalProperties();
+    for (val key : path.split("\\.")) {
+      if (!(value instanceof Map)) {
+        return null;
+      }
+      value = ((Map<?, ?>) value).get(key);
+    }
+    return value instanceof String ? (String) value : null;
   }
 
-  private WesStates getRunExecutorState(Pod pod) {
-    if (pod.getStatus().getPhase().equalsIgnoreCase(RUNNING)) {
-      return WesStates.RUNNING;
-    } else if (pod.getStatus().getPhase().equalsIgnoreCase(FAILED)) {
+  /**
+   * A pending pod is still starting unless one of its containers can't be started, and the Unknown
+   * phase means the node can't be reached, so neither says anything about the run: they are
+   * UNKNOWN, which is never relayed.
+   */
+  static WesStates getRunExecutorState(Pod pod) {
+    val phase = pod.getStatus().getPhase();
+    if (RUNNING.equalsIgnoreCase(phase)) {
+      // e.g. a sidecar keeps the pod running after the workflow container failed
+      return hasFailedContainer(pod) ? WesStates.EXECUTOR_ERROR : WesStates.RUNNING;
+    } else if (FAILED.equalsIgnoreCase(phase)) {
       return WesStates.EXECUTOR_ERROR;
-    } else if (pod.getStatus().getPhase().equalsIgnoreCase(SUCCEEDED)) {
+    } else if (SUCCEEDED.equalsIgnoreCase(phase)) {
       return WesStates.COMPLETE;
+    } else if (PENDING.equalsIgnoreCase(phase)) {
+      return hasUnstartableContainer(pod) ? WesStates.SYSTEM_ERROR : WesStates.UNKNOWN;
+    }
+    return WesStates.UNKNOWN;
+  }
+
+  private static boolean hasFailedContainer(Pod pod) {
+    return containerStatuses(pod).stream()
+        .map(ContainerStatus::getState)
+        .anyMatch(
+            state ->
+                state != null
+                    && state.getTerminated() != null
+                    && state.getTerminated().getExitCode() != null
+                    && state.getTerminated().getExitCode() != 0);
+  }
+
+  private static boolean hasUnstartableContainer(Pod pod) {
+    return containerStatuses(pod).stream()
+        .map(ContainerStatus::getState)
+        .anyMatch(
+            state ->
+                state != null
+                    && state.getWaiting() != null
+                    && UNSTARTABLE_CONTAINER_REASONS.contains(state.getWaiting().getReason()));
+  }
+
+  private static List<ContainerStatus> containerStatuses(Pod pod) {
+    val statuses = new ArrayList<ContainerStatus>();
+    if (pod.getStatus().getInitContainerStatuses() != null) {
+      statuses.addAll(pod.getStatus().getInitContainerStatuses());
     }
-    return WesStates.SYSTEM_ERROR;
+    if (pod.getStatus().getContainerStatuses() != null) {
+      statuses.addAll(pod.getStatus().getContainerStatuses());
+    }
+    return statuses;
+  }
+
+  @PreDestroy
+  public synchronized void closeKubernetesClients() {
+    clientsClosed = true;
+    clients.values().forEach(DefaultKubernetesClient::close);
+    clients.clear();
+  }
+
+  private DefaultKubernetesClient getKubernetesClient(KubernetesClientDetails clientDetails) {
+    val client = clients.get(clientDetails.getName());
+    return client != null ? client : createCachedKubernetesClient(clientDetails);
+  }
+
+  private synchronized DefaultKubernetesClient createCachedKubernetesClient(
+      KubernetesClientDetails clientDetails) {
+    // a log fetch or pass still running on shutdown would otherwise open a client nobody closes
+    if (clientsClosed) {
+      throw new IllegalStateException("Kubernetes clients are closed");
+    }
+    return clients.computeIfAbsent(
+        clientDetails.getName(), cluster -> createKubernetesClient(clientDetails));
   }
 
   private DefaultKubernetesClient createKubernetesClient(KubernetesClientDetails clientDetails) {
-    log.info("Init k8s client");
+    log.info("Init k8s client for cluster {}", clientDetails.getName());
     try {
       val config =
           new ConfigBuilder()
@@ -236,29 +561,4 @@ public class KubernetesService {
       throw new RuntimeException(e.getLocalizedMessage());
     }
   }
-
-
-  public List<DefaultKubernetesClient> createKubernetesClient() {
-    log.info("Init k8s client");
-    List<DefaultKubernetesClient> k8sClients = new ArrayList<>();
-    try {
-      List<KubernetesClientDetails> clientDetails = properties.getClientList();
-
-      for (val client : clientDetails) {
-        val config =
-            new ConfigBuilder()
-                .withMasterUrl(client.getMasterUrl())
-                .withNamespace(client.getRunsNamespace())
-                .withTrustCerts(client.getTrustCertificate())
-                .build();
-        k8sClients.add(new DefaultKubernetesClient(config));
-
-      }
-    } catch (KubernetesClientException e) {
-      log.info("Failed to init k8s client");
-      throw new RuntimeException(e.getLocalizedMessage());
-    }
-    return k8sClients;
-  }
-
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static java.time.ZoneOffset.UTC;
+
+import io.fabric8.kubernetes.api.model.coordination.v1.Lease;
+import io.fabric8.kubernetes.api.model.coordination.v1.LeaseBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.ShardLease;
+
+/** Keeps the leases as coordination.k8s.io Leases labelled with the lease group. */
+@Slf4j
+public class KubernetesShardLeaseBackend implements ShardLeaseBackend {
+  private static final String LEASE_GROUP_LABEL = "raccoonLeaseGroup";
+
+  private final KubernetesClient client;
+  private final String namespace;
+  private final String group;
+
+  public KubernetesShardLeaseBackend(KubernetesClient client, String namespace, String group) {
+    this.client = client;
+    this.namespace = namespace;
+    this.group = group;
+  }
+
+  @Override
+  public Map<String, ShardLease> getLeases() {
+    val leases = new HashMap<String, ShardLease>();
+    client
+        .leases()
+        .inNamespace(namespace)
+        .withLabel(LEASE_GROUP_LABEL, group)
+        .list()
+        .getItems()
+        .forEach(lease -> leases.put(lease.getMetadata().getName(), toShardLease(lease)));
+    return leases;
+  }
+
+  @Override
+  public boolean compareAndSet(ShardLease observed, ShardLease next) {
+    val resource = client.leases().inNamespace(namespace).withName(next.getName());
+    try {
+      if (observed == null) {
+        resource.create(toLease(next));
+      } else {
+        resource.lockResourceVersion(observed.getVersion()).replace(toLease(next));
+      }
+      return true;
+    } catch (KubernetesClientException e) {
+      if (e.getCode() == HttpURLConnection.HTTP_CONFLICT) {
+        log.debug("Lost the race for lease {}", next.getName());
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  private static ShardLease toShardLease(Lease lease) {
+    val spec = lease.getSpec();
+    return ShardLease.builder()
+        .name(lease.getMetadata().getName())
+        .holder(spec.getHolderIdentity())
+        .renewTime(spec.getRenewTime() == null ? null : spec.getRenewTime().toInstant())
+        .durationSec(spec.getLeaseDurationSeconds() == null ? 0 : spec.getLeaseDurationSeconds())
+        .version(lease.getMetadata().getResourceVersion())
+        .build();
+  }
+
+  private Lease toLease(ShardLease shardLease) {
+    return new LeaseBuilder()
+        .withNewMetadata()
+        .withNamespace(namespace)
+        .withName(shardLease.getName())
+        .withLabels(Map.of(LEASE_GROUP_LABEL, group))
+        .endMetadata()
+        .withNewSpec()
+        .withHolderIdentity(shardLease.getHolder())
+        .withLeaseDurationSeconds(shardLease.getDurationSec())
+        .withRenewTime(
+            shardLease.getRenewTime() == null ? null : shardLease.getRenewTime().atZone(UTC))
+        .endSpec()
+        .build();
+  }
+}
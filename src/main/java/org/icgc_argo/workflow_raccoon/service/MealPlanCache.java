@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import java.time.Duration;
+import java.util.Optional;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.MealPlan;
+import org.icgc_argo.workflow_raccoon.model.RunUpdatesRequest;
+import org.icgc_argo.workflow_raccoon.properties.RaccoonProperties;
+import org.icgc_argo.workflow_raccoon.utils.ExpiringCache;
+import org.springframework.stereotype.Component;
+
+/**
+ * Recently computed meal plans, looked up by the request that produced them (for dry-runs) or by
+ * meal plan id (for executing a plan that was inspected via dry-run).
+ */
+@Slf4j
+@Component
+public class MealPlanCache {
+  private final ExpiringCache<RunUpdatesRequest, MealPlan> byRequest;
+  private final ExpiringCache<String, MealPlan> byId;
+
+  public MealPlanCache(RaccoonProperties properties) {
+    val ttl = Duration.ofSeconds(properties.getMealPlanCacheTtlSec());
+    byRequest = new ExpiringCache<>(ttl, properties.getMealPlanCacheMaxSize());
+    byId = new ExpiringCache<>(ttl, properties.getMealPlanCacheMaxSize());
+  }
+
+  public Optional<MealPlan> get(RunUpdatesRequest req) {
+    return byRequest.get(req);
+  }
+
+  public void put(RunUpdatesRequest req, MealPlan mealPlan) {
+    byRequest.put(req, mealPlan);
+    byId.put(mealPlan.getId(), mealPlan);
+  }
+
+  /** Removes and returns the meal plan so it can only be executed once. */
+  public Optional<MealPlan> take(String mealPlanId) {
+    val mealPlan = byId.remove(mealPlanId);
+    mealPlan.ifPresent(this::evict);
+    return mealPlan;
+  }
+
+  /** Evicts a meal plan that is being executed, it no longer describes pending work. */
+  public void evict(MealPlan mealPlan) {
+    byId.remove(mealPlan.getId());
+    byRequest.remove(mealPlan.getRequest(), mealPlan);
+  }
+}
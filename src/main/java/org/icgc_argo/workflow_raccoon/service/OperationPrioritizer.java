@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.RunUpdate;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPodTable;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunResource;
+import org.icgc_argo.workflow_raccoon.properties.PriorityProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Scores meal plan operations so a pass that can't go through all of them does the most valuable
+ * ones first: updates of runs stuck the longest in the worst state, deletions of pods still holding
+ * the most resources in the busiest clusters. Scores are a weighted sum of those factors, weights
+ * of 0 leave a factor out, and are only comparable within one meal plan.
+ */
+@Component
+@RequiredArgsConstructor
+public class OperationPrioritizer {
+  private static final double MILLIS_PER_DAY = Duration.ofDays(1).toMillis();
+
+  private final PriorityProperties properties;
+
+  public RunUpdate prioritize(RunUpdate runUpdate, long nowMillis) {
+    val priority =
+        properties.getRunUpdateBase()
+            + properties.getRunAgePerDay() * days(runUpdate.getStartTime(), nowMillis)
+            + properties.getStateSeverity() * severity(runUpdate.getNewState());
+    return runUpdate.toBuilder().priority(priority).build();
+  }
+
+  /** Priority of deleting a pod of the table, its requests count only while it holds them. */
+  public double runPodPriority(RunPodTable runPods, int row, long nowMillis) {
+    var priority =
+        properties.getRunAgePerDay() * (nowMillis - runPods.getAgeMillis(row)) / MILLIS_PER_DAY
+            + properties.getStateSeverity() * severity(runPods.getState(row))
+            + properties.getClusterPressure() * runPods.getClusterShare(runPods.getCluster(row));
+    val state = runPods.getState(row);
+    if (state == WesStates.RUNNING || state == WesStates.UNKNOWN) {
+      priority +=
+          properties.getCpuPerCore() * runPods.getCpuRequests(row)
+              + properties.getMemoryPerGiB() * runPods.getMemoryRequests(row);
+    }
+    return priority;
+  }
+
+  public RunResource prioritize(RunResource resource, RunPodTable runPods, long nowMillis) {
+    val ageMillis =
+        runPods.getRunTreeAgeMillis(
+            resource.getRunId(), resource.getAge().toInstant().toEpochMilli());
+    val priority =
+        properties.getRunAgePerDay() * (nowMillis - ageMillis) / MILLIS_PER_DAY
+            + properties.getClusterPressure() * runPods.getClusterShare(resource.getCluster());
+    return resource.toBuilder().priority(priority).build();
+  }
+
+  private static double days(OffsetDateTime since, long nowMillis) {
+    return (nowMillis - since.toInstant().toEpochMilli()) / MILLIS_PER_DAY;
+  }
+
+  /** How bad it is for a run to be left in (or a pod to be left behind in) the state. */
+  private static int severity(WesStates state) {
+    switch (state) {
+      case SYSTEM_ERROR:
+        return 3;
+      case EXECUTOR_ERROR:
+        return 2;
+      case COMPLETE:
+      case CANCELED:
+        return 1;
+      default:
+        return 0;
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static java.time.OffsetDateTime.now;
+import static java.time.ZoneOffset.UTC;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.MealPlan;
+import org.icgc_argo.workflow_raccoon.model.PassProgress;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+
+/** Live state of one pass, from being queued until it finishes, is cancelled or times out. */
+class PassExecution {
+  @RequiredArgsConstructor
+  enum Phase {
+    RUN_UPDATES("runUpdates"),
+    STALE_RUN_PODS("staleRunPods"),
+    STALE_RESOURCES("staleResources");
+
+    private final String key;
+  }
+
+  @Getter private final String id = UUID.randomUUID().toString();
+  private final OffsetDateTime queuedAt = now(UTC);
+  // the subscription executing the pass, disposing it before it is set cancels it once set
+  private final Disposable.Swap subscription = Disposables.swap();
+
+  private final EnumMap<Phase, Counters> counters = new EnumMap<>(Phase.class);
+  private volatile String mealPlanId;
+  private volatile PassProgress.State state = PassProgress.State.QUEUED;
+  private volatile OffsetDateTime startedAt;
+  private volatile OffsetDateTime finishedAt;
+  private volatile long startedNanos;
+  private volatile long finishedNanos;
+
+  PassExecution() {
+    for (val phase : Phase.values()) {
+      counters.put(phase, new Counters());
+    }
+  }
+
+  void started() {
+    startedNanos = System.nanoTime();
+    startedAt = now(UTC);
+    state = PassProgress.State.EXECUTING;
+  }
+
+  void subscribed(Disposable disposable) {
+    subscription.update(disposable);
+  }
+
+  void planned(MealPlan mealPlan) {
+    mealPlanId = mealPlan.getId();
+    counters.get(Phase.RUN_UPDATES).total = mealPlan.getRunUpdates().size();
+    counters.get(Phase.STALE_RUN_PODS).total = mealPlan.getStaleRunPods().size();
+    counters.get(Phase.STALE_RESOURCES).total = mealPlan.getStaleResources().size();
+  }
+
+  void operationDone(Phase phase, boolean failed) {
+    val phaseCounters = counters.get(phase);
+    if (failed) {
+      phaseCounters.failed.incrementAndGet();
+    }
+    phaseCounters.done.incrementAndGet();
+  }
+
+  void operationSkipped(Phase phase) {
+    counters.get(phase).skipped.incrementAndGet();
+    counters.get(phase).done.incrementAndGet();
+  }
+
+  long getSkippedCount() {
+    return counters.values().stream().mapToLong(c -> c.skipped.get()).sum();
+  }
+
+  long getFailedCount() {
+    return counters.values().stream().mapToLong(c -> c.failed.get()).sum();
+  }
+
+  /** Records the final state, the first one recorded wins (e.g. a timeout over the cancel). */
+  synchronized boolean finished(PassProgress.State finalState) {
+    if (state.isFinished()) {
+      return false;
+    }
+    state = finalState;
+    finishedAt = now(UTC);
+    finishedNanos = System.nanoTime();
+    return true;
+  }
+
+  void cancel() {
+    subscription.dispose();
+  }
+
+  PassProgress toProgress() {
+    val phases = new LinkedHashMap<String, PassProgress.Phase>();
+    long executed = 0;
+    for (val entry : counters.entrySet()) {
+      val phaseCounters = entry.getValue();
+      executed += phaseCounters.done.get() - phaseCounters.skipped.get();
+      phases.put(
+          entry.getKey().key,
+          PassProgress.Phase.builder()
+              .total(phaseCounters.total)
+              .done(phaseCounters.done.get())
+              .failed(phaseCounters.failed.get())
+              .skipped(phaseCounters.skipped.get())
+              .build());
+    }
+    return PassProgress.builder()
+        .passId(id)
+        .mealPlanId(mealPlanId)
+        .state(state)
+        .queuedAt(queuedAt)
+        .startedAt(startedAt)
+        .finishedAt(finishedAt)
+        .phases(mealPlanId == null ? new LinkedHashMap<>() : phases)
+        .operationsPerSecond(operationsPerSecond(executed))
+        .build();
+  }
+
+  /** One line of progress per phase, logged periodically while executing. */
+  String summarize() {
+    val summary = new StringBuilder();
+    long executed = 0;
+    for (val entry : counters.entrySet()) {
+      val phaseCounters = entry.getValue();
+      executed += phaseCounters.done.get() - phaseCounters.skipped.get();
+      summary
+          .append(entry.getKey().key)
+          .append(' ')
+          .append(phaseCounters.done.get())
+          .append('/')
+          .append(phaseCounters.total)
+          .append(" (")
+          .append(phaseCounters.failed.get())
+          .append(" failed, ")
+          .append(phaseCounters.skipped.get())
+          .append(" skipped), ");
+    }
+    return summary.append(String.format("%.1f ops/s", operationsPerSecond(executed))).toString();
+  }
+
+  private double operationsPerSecond(long executed) {
+    if (startedAt == null || executed == 0) {
+      return 0;
+    }
+    val until = finishedAt == null ? System.nanoTime() : finishedNanos;
+    val elapsed = Duration.ofNanos(until - startedNanos).toMillis();
+    return elapsed == 0 ? 0 : executed * 1000.0 / elapsed;
+  }
+
+  private static class Counters {
+    volatile long total = 0;
+    final AtomicLong done = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong skipped = new AtomicLong();
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import java.util.function.Supplier;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.MealPlan;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+import org.icgc_argo.workflow_raccoon.utils.Tracing;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Timers and counters for each stage of a reconcile pass, exposed via the actuator endpoints. The
+ * timed stages are traced as well, each pass being the root span of those it went through.
+ */
+@Component
+@RequiredArgsConstructor
+public class RaccoonMetrics {
+  private static final String CLUSTER = "cluster";
+  private static final String KIND = "kind";
+  private static final String STATE = "state";
+  private static final String OUTCOME = "outcome";
+  private static final String CATEGORY = "category";
+
+  private final MeterRegistry registry;
+  private final Tracer tracer;
+
+  /** Times listing one kind of kubernetes resource in a cluster. */
+  public <T> T timeClusterList(String cluster, String kind, Supplier<T> list) {
+    return Timer.builder("raccoon.k8s.list")
+        .description("Latency of listing kubernetes resources")
+        .tags(CLUSTER, cluster, KIND, kind)
+        .register(registry)
+        .record(() -> traced(list, "raccoon.k8s.list", CLUSTER, cluster, KIND, kind));
+  }
+
+  /** Times fetching a pod log and records its size. */
+  public PodLog timePodLog(String cluster, Supplier<PodLog> fetch) {
+    val podLog =
+        Timer.builder("raccoon.k8s.pod.log")
+            .description("Latency of fetching a pod log")
+            .tag(CLUSTER, cluster)
+            .register(registry)
+            .record(() -> traced(fetch, "raccoon.k8s.pod.log", CLUSTER, cluster));
+    DistributionSummary.builder("raccoon.k8s.pod.log.size")
+        .description("Size of fetched pod logs")
+        .baseUnit("bytes")
+        .tag(CLUSTER, cluster)
+        .register(registry)
+        .record(podLog.getSize());
+    return podLog;
+  }
+
+  /** Deletes a kubernetes resource, counting the deletion by outcome. */
+  public boolean recordDeletion(String cluster, String kind, Supplier<Boolean> delete) {
+    val deleted = traced(delete, "raccoon.k8s.delete", CLUSTER, cluster, KIND, kind);
+    Counter.builder("raccoon.k8s.deletions")
+        .description("Kubernetes resources deleted by raccoon")
+        .tags(CLUSTER, cluster, KIND, kind, OUTCOME, deleted ? "deleted" : "failed")
+        .register(registry)
+        .increment();
+    return deleted;
+  }
+
+  /** Records run pods that lost to a pod of the same run in another cluster. */
+  public void recordDuplicateRuns(int count) {
+    Counter.builder("raccoon.k8s.run.duplicates")
+        .description("Run pods sharing their run id with a pod in another cluster")
+        .register(registry)
+        .increment(count);
+  }
+
+  /** Records a run pod termination seen by the pod watches, and whether it was relayed. */
+  public void recordWatchedTermination(String cluster, boolean relayed) {
+    Counter.builder("raccoon.watch.terminations")
+        .description("Run pods seen reaching Succeeded or Failed by the pod watches")
+        .tags(CLUSTER, cluster, OUTCOME, relayed ? "relayed" : "ignored")
+        .register(registry)
+        .increment();
+  }
+
+  public void recordHeldBackTransition(WesStates observedState) {
+    Counter.builder("raccoon.run.transitions.heldback")
+        .description(
+            "Run state transitions not relayed (yet) because they weren't observed long enough")
+        .tag(STATE, observedState.getValue())
+        .register(registry)
+        .increment();
+  }
+
+  /** Times looking up one batch of runs by id in the rdpc gateway. */
+  public <T> Mono<T> timeRdpcLookup(Mono<T> lookup) {
+    return time(lookup, "raccoon.rdpc.lookup", "Latency of looking up a batch of rdpc runs by id");
+  }
+
+  /** Times fetching one page of runs from the rdpc gateway. */
+  public <T> Mono<T> timeRdpcPage(WesStates state, Mono<T> page) {
+    return time(
+        page,
+        "raccoon.rdpc.page",
+        "Latency of fetching a page of runs from rdpc",
+        STATE,
+        state.getValue());
+  }
+
+  public void recordRdpcRuns(WesStates state, int count) {
+    Counter.builder("raccoon.rdpc.runs")
+        .description("Active runs fetched from rdpc")
+        .tag(STATE, state.getValue())
+        .register(registry)
+        .increment(count);
+  }
+
+  /** Times relaying one run update to the weblog, the outcome tag reflects the emitted value. */
+  public Mono<Boolean> timeWeblogRelay(WesStates newState, Mono<Boolean> relay) {
+    val timed =
+        Mono.defer(
+            () -> {
+              val sample = Timer.start(registry);
+              return relay.doOnEach(
+                  signal -> {
+                    if (signal.isOnNext() || signal.isOnError()) {
+                      val outcome = Boolean.TRUE.equals(signal.get()) ? "success" : "failure";
+                      sample.stop(weblogRelayTimer(newState, outcome));
+                    }
+                  });
+            });
+    return traced(timed, false, "raccoon.weblog.relay", STATE, newState.getValue());
+  }
+
+  /** Counts run updates not relayed because the same one was relayed recently. */
+  public void recordWeblogRelaySkipped(WesStates newState) {
+    Counter.builder("raccoon.weblog.relay.skipped")
+        .description("Run updates not relayed to weblog as they were relayed recently")
+        .tag(STATE, newState.getValue())
+        .register(registry)
+        .increment();
+  }
+
+  public void recordMealPlan(MealPlan mealPlan) {
+    recordMealPlanCategory("runUpdates", mealPlan.getRunUpdates().size());
+    recordMealPlanCategory("staleRunPods", mealPlan.getStaleRunPods().size());
+    recordMealPlanCategory("staleResources", mealPlan.getStaleResources().size());
+    mealPlan
+        .getRunUpdates()
+        .forEach(
+            runUpdate ->
+                Counter.builder("raccoon.mealplan.run.updates")
+                    .description("Planned run updates by new state")
+                    .tag(STATE, runUpdate.getNewState().getValue())
+                    .register(registry)
+                    .increment());
+  }
+
+  /** Times computing a meal plan, from listing the clusters until the last run update is known. */
+  public <T> Mono<T> timeMealPlan(Mono<T> mealPlan) {
+    return time(mealPlan, "raccoon.mealplan", "Latency of computing a meal plan");
+  }
+
+  /** Times a whole pass, from listing the clusters until the last operation executed. */
+  public Mono<Boolean> timePass(String passId, Mono<Boolean> pass) {
+    val timed = timed(pass, "raccoon.pass", "End to end duration of a reconcile pass");
+    return traced(timed, true, "raccoon.pass", "pass", passId);
+  }
+
+  private void recordMealPlanCategory(String category, int size) {
+    DistributionSummary.builder("raccoon.mealplan.size")
+        .description("Operations in computed meal plans")
+        .tag(CATEGORY, category)
+        .register(registry)
+        .record(size);
+  }
+
+  private Timer weblogRelayTimer(WesStates newState, String outcome) {
+    return Timer.builder("raccoon.weblog.relay")
+        .description("Latency of relaying run updates to weblog")
+        .tags(STATE, newState.getValue(), OUTCOME, outcome)
+        .register(registry);
+  }
+
+  private <T> Mono<T> time(Mono<T> mono, String name, String description, String... tags) {
+    return traced(timed(mono, name, description, tags), false, name, tags);
+  }
+
+  private <T> Mono<T> timed(Mono<T> mono, String name, String description, String... tags) {
+    return Mono.defer(
+        () -> {
+          val sample = Timer.start(registry);
+          return mono.doFinally(
+              signal ->
+                  sample.stop(
+                      Timer.builder(name)
+                          .description(description)
+                          .tags(tags)
+                          .tag(OUTCOME, signal == SignalType.ON_COMPLETE ? "completed" : "failed")
+                          .register(registry)));
+        });
+  }
+
+  /** Spans the blocking call, under the span current on the thread. */
+  private <T> T traced(Supplier<T> call, String name, String... attributes) {
+    val span = startSpan(name, Context.current(), attributes);
+    try (Scope ignored = span.makeCurrent()) {
+      return call.get();
+    } catch (RuntimeException e) {
+      span.recordException(e);
+      span.setStatus(StatusCode.ERROR);
+      throw e;
+    } finally {
+      span.end();
+    }
+  }
+
+  /**
+   * Spans the mono from subscription to termination, under the span of the subscriber context, and
+   * passes its own span up the chain for the stages it goes through.
+   */
+  private <T> Mono<T> traced(Mono<T> mono, boolean root, String name, String... attributes) {
+    return Mono.deferContextual(
+        view -> {
+          val parent = root ? Context.root() : Tracing.current(view);
+          val span = startSpan(name, parent, attributes);
+          return mono.doOnError(
+                  error -> {
+                    span.recordException(error);
+                    span.setStatus(StatusCode.ERROR);
+                  })
+              // ended before the signal goes downstream, so enclosing spans always end last
+              .doOnTerminate(span::end)
+              .doOnCancel(
+                  () -> {
+                    span.setAttribute("cancelled", true);
+                    span.end();
+                  })
+              .contextWrite(Tracing.propagate(parent.with(span)));
+        });
+  }
+
+  private Span startSpan(String name, Context parent, String... attributes) {
+    val builder = tracer.spanBuilder(name).setParent(parent);
+    for (int i = 0; i + 1 < attributes.length; i += 2) {
+      builder.setAttribute(attributes[i], attributes[i + 1]);
+    }
+    return builder.startSpan();
+  }
+}
@@ -19,145 +19,740 @@
 package org.icgc_argo.workflow_raccoon.service;
 
 import static java.time.OffsetDateTime.now;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toUnmodifiableList;
 
 import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.function.Function;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
 import javax.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.icgc_argo.workflow_raccoon.model.MealPlan;
+import org.icgc_argo.workflow_raccoon.model.PassProgress;
+import org.icgc_argo.workflow_raccoon.model.PassTrigger;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
+import org.icgc_argo.workflow_raccoon.model.ReconcileStrategy;
+import org.icgc_argo.workflow_raccoon.model.RunStateObservation;
 import org.icgc_argo.workflow_raccoon.model.RunUpdate;
 import org.icgc_argo.workflow_raccoon.model.RunUpdatesRequest;
+import org.icgc_argo.workflow_raccoon.model.TriggeredPass;
 import org.icgc_argo.workflow_raccoon.model.WesStates;
-import org.icgc_argo.workflow_raccoon.model.kubernetes.ConfigMap;
 import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPod;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPodTable;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunResource;
 import org.icgc_argo.workflow_raccoon.model.rdpc.Run;
 import org.icgc_argo.workflow_raccoon.properties.RaccoonProperties;
+import org.icgc_argo.workflow_raccoon.properties.ReaperKind;
+import org.icgc_argo.workflow_raccoon.properties.ReaperProperties;
+import org.icgc_argo.workflow_raccoon.utils.Tracing;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuples;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class RaccoonService {
+  private static final int POD_LOG_CONCURRENCY = 8;
+  private static final int FINISHED_PASS_HISTORY_SIZE = 20;
+
   private final RaccoonProperties properties;
+  private final ReaperProperties reaperProperties;
   private final KubernetesService kubernetesService;
   private final RdpcGatewayService rdpcGatewayService;
   private final RelayWeblogService relayWeblogService;
+  private final MealPlanCache mealPlanCache;
+  private final ExecutionJournal executionJournal;
+  private final ShardCoordinator shardCoordinator;
+  private final RunStateDebouncer runStateDebouncer;
+  private final OperationPrioritizer prioritizer;
+  private final RaccoonMetrics metrics;
+
+  // single-flight state, at most one pass executes and at most one follow-up is queued behind it
+  private final Object passLock = new Object();
+  private PendingPass currentPass = null;
+  private PendingPass queuedPass = null;
+  // recently finished passes, so their final progress can still be looked up
+  private final Map<String, PassExecution> finishedPasses =
+      new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PassExecution> eldest) {
+          return size() > FINISHED_PASS_HISTORY_SIZE;
+        }
+      };
+
+  // meal plans being computed, concurrent callers with an equal request share the computation
+  private final Map<RunUpdatesRequest, Mono<MealPlan>> inFlightMealPlans =
+      new ConcurrentHashMap<>();
 
   @PostConstruct
   public void postConstruct() {
     log.info("RaccoonService is ready");
   }
 
+  /** Resumes the outstanding operations of a meal plan interrupted by a restart. */
+  @EventListener(ApplicationReadyEvent.class)
+  public void resumeInterruptedMealPlan() {
+    executionJournal
+        .recoverInterruptedMealPlan()
+        .ifPresent(
+            mealPlan -> {
+              log.info("Resuming interrupted meal plan {}", mealPlan.getId());
+              triggerPass(new PendingPass(mealPlan.getRequest(), mealPlan, new PassExecution()));
+            });
+  }
+
+  /**
+   * Starts a pass asynchronously unless one is already executing, in which case the request is
+   * queued as the single follow-up pass (or merged into the already queued one).
+   */
+  public TriggeredPass triggerMealPlanExecution(RunUpdatesRequest req) {
+    return triggerPass(new PendingPass(req, null, new PassExecution()));
+  }
+
+  /**
+   * Same as {@link #triggerMealPlanExecution(RunUpdatesRequest)} but executes a meal plan computed
+   * by an earlier dry-run instead of computing a new one. Empty if the meal plan is not cached.
+   */
+  public Optional<TriggeredPass> triggerMealPlanExecution(String mealPlanId) {
+    return mealPlanCache
+        .take(mealPlanId)
+        .map(
+            mealPlan ->
+                triggerPass(new PendingPass(mealPlan.getRequest(), mealPlan, new PassExecution())));
+  }
+
   public Mono<Boolean> prepareAndExecuteMealPlan(RunUpdatesRequest req) {
-    return prepareMealPlan(req)
-        .doOnNext(mp -> log.info("Meal plan to execute: {}", mp))
-        .flatMap(this::executeMealPlan)
-        .log("RaccoonService");
+    return executeMealPlan(computeSharedMealPlan(req), new PassExecution());
   }
 
+  /** Returns the cached meal plan for the request if there is one, otherwise computes it. */
   public Mono<MealPlan> prepareMealPlan(RunUpdatesRequest req) {
+    return mealPlanCache.get(req).map(Mono::just).orElseGet(() -> computeSharedMealPlan(req));
+  }
+
+  /** Progress of an executing, queued or recently finished pass. */
+  public Optional<PassProgress> getPassProgress(String passId) {
+    synchronized (passLock) {
+      return findActivePass(passId)
+          .map(PendingPass::getExecution)
+          .or(() -> Optional.ofNullable(finishedPasses.get(passId)))
+          .map(PassExecution::toProgress);
+    }
+  }
+
+  /** Progress of the executing pass followed by the queued one, if any. */
+  public List<PassProgress> getActivePasses() {
+    synchronized (passLock) {
+      return Stream.of(currentPass, queuedPass)
+          .filter(Objects::nonNull)
+          .map(pass -> pass.getExecution().toProgress())
+          .collect(toUnmodifiableList());
+    }
+  }
+
+  /**
+   * Cancels an executing or queued pass. The operation in flight is abandoned, the journal is
+   * cleared so the pass isn't resumed after a restart, and the queued pass (if any) starts. False
+   * if the pass is unknown or already finished.
+   */
+  public boolean cancelPass(String passId) {
+    PendingPass executing;
+    synchronized (passLock) {
+      if (queuedPass != null && queuedPass.getExecution().getId().equals(passId)) {
+        queuedPass.getExecution().finished(PassProgress.State.CANCELLED);
+        finishedPasses.put(passId, queuedPass.getExecution());
+        queuedPass = null;
+        log.info("Cancelled queued pass {}", passId);
+        return true;
+      }
+      executing = findActivePass(passId).orElse(null);
+    }
+    if (executing == null) {
+      return false;
+    }
+    log.info("Cancelling executing pass {}", passId);
+    executing.getExecution().cancel();
+    return true;
+  }
+
+  private Optional<PendingPass> findActivePass(String passId) {
+    return Stream.of(currentPass, queuedPass)
+        .filter(pass -> pass != null && pass.getExecution().getId().equals(passId))
+        .findFirst();
+  }
+
+  private TriggeredPass triggerPass(PendingPass pass) {
+    synchronized (passLock) {
+      if (currentPass != null) {
+        if (queuedPass == null) {
+          queuedPass = pass;
+          return new TriggeredPass(PassTrigger.QUEUED, pass.getExecution().getId());
+        }
+        // a cached meal plan can't absorb other requests, so the follow-up recomputes instead
+        queuedPass =
+            new PendingPass(
+                queuedPass.getRequest().mergeWith(pass.getRequest()),
+                null,
+                queuedPass.getExecution());
+        return new TriggeredPass(PassTrigger.JOINED, queuedPass.getExecution().getId());
+      }
+      currentPass = pass;
+    }
+    startPass(pass);
+    return new TriggeredPass(PassTrigger.STARTED, pass.getExecution().getId());
+  }
+
+  private void startPass(PendingPass pass) {
+    val execution = pass.getExecution();
+    val mealPlan =
+        pass.getMealPlan() == null
+            ? computeSharedMealPlan(pass.getRequest())
+            : Mono.just(pass.getMealPlan());
+    execution.started();
+    val summaries = logProgressPeriodically(execution);
+    val subscription =
+        metrics
+            .timePass(
+                execution.getId(), withDeadline(executeMealPlan(mealPlan, execution), execution))
+            .doOnNext(
+                successful ->
+                    execution.finished(
+                        successful ? PassProgress.State.SUCCEEDED : PassProgress.State.FAILED))
+            .doOnError(error -> execution.finished(PassProgress.State.FAILED))
+            .doOnCancel(
+                () -> {
+                  if (execution.finished(PassProgress.State.CANCELLED)) {
+                    executionJournal.end();
+                  }
+                })
+            .doFinally(
+                signal -> {
+                  summaries.dispose();
+                  onPassFinished(pass);
+                })
+            .subscribe(
+                successful ->
+                    log.info(
+                        "Async cleanup {} completed successfully={}: {}",
+                        execution.getId(),
+                        successful,
+                        execution.summarize()),
+                error -> log.error("Async cleanup {} failed", execution.getId(), error));
+    execution.subscribed(subscription);
+  }
+
+  /** A summary line per interval instead of a line per operation, which comes out at debug only. */
+  private Disposable logProgressPeriodically(PassExecution execution) {
+    if (properties.getPassSummaryIntervalSec() <= 0) {
+      return Disposables.disposed();
+    }
+    val interval = Duration.ofSeconds(properties.getPassSummaryIntervalSec());
+    return Flux.interval(interval, interval)
+        .subscribe(
+            tick -> log.info("Pass {} progress: {}", execution.getId(), execution.summarize()));
+  }
+
+  /** Stops a pass exceeding the deadline, it then reports unsuccessful and isn't resumed. */
+  private Mono<Boolean> withDeadline(Mono<Boolean> pass, PassExecution execution) {
+    if (properties.getPassDeadlineSec() <= 0) {
+      return pass;
+    }
+    return pass.timeout(Duration.ofSeconds(properties.getPassDeadlineSec()))
+        .onErrorResume(
+            TimeoutException.class,
+            error -> {
+              log.warn(
+                  "Pass {} exceeded its deadline of {}s, stopping it",
+                  execution.getId(),
+                  properties.getPassDeadlineSec());
+              execution.finished(PassProgress.State.TIMED_OUT);
+              executionJournal.end();
+              return Mono.just(false);
+            });
+  }
+
+  private void onPassFinished(PendingPass finished) {
+    PendingPass next;
+    synchronized (passLock) {
+      finishedPasses.put(finished.getExecution().getId(), finished.getExecution());
+      next = queuedPass;
+      queuedPass = null;
+      currentPass = next;
+    }
+    if (next != null) {
+      log.info("Starting queued follow-up cleanup pass {}", next.getExecution().getId());
+      startPass(next);
+    }
+  }
+
+  /** Computes a meal plan, sharing the result with concurrent callers using an equal request. */
+  private Mono<MealPlan> computeSharedMealPlan(RunUpdatesRequest req) {
+    return inFlightMealPlans.computeIfAbsent(
+        req,
+        key ->
+            metrics
+                .timeMealPlan(
+                    Tracing.defer(() -> computeMealPlan(key))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                // leave the in-flight map before emitting so later callers never see a done result
+                .doOnSuccess(
+                    mealPlan -> {
+                      inFlightMealPlans.remove(key);
+                      mealPlanCache.put(key, mealPlan);
+                      metrics.recordMealPlan(mealPlan);
+                    })
+                .doOnError(error -> inFlightMealPlans.remove(key))
+                .cache());
+  }
+
+  private Mono<Boolean> executeMealPlan(Mono<MealPlan> mealPlan, PassExecution execution) {
+    return mealPlan
+        .doOnNext(
+            mp ->
+                log.info(
+                    "Meal plan to execute in pass {}: {}",
+                    execution.getId(),
+                    mp.summarize(properties.getMealPlanLogMaxItems())))
+        .doOnNext(mealPlanCache::evict)
+        .doOnNext(mp -> runStateDebouncer.record(mp.getRunStateObservations()))
+        .doOnNext(execution::planned)
+        .flatMap(mp -> executeMealPlan(mp, execution));
+  }
+
+  private Mono<MealPlan> computeMealPlan(RunUpdatesRequest req) {
     /*val allRunPods = kubernetesService.getCurrentRunPods();
     val configMaps = kubernetesService.getCurrentRunConfigMaps();*/
 
-    val allRunPods = kubernetesService.getAllCurrentRunPods();
-    val configMaps = kubernetesService.getAllCurrentRunConfigMaps();
+    val allRunPods = kubernetesService.getAllCurrentRunPodTable();
+    val resources = kubernetesService.getAllCurrentRunResources();
+
+    val nowMillis = System.currentTimeMillis();
+    val staleResources =
+        byPriority(
+            toCleanup(resources, allRunPods, reaperProperties.getKinds()).stream()
+                .map(resource -> prioritizer.prioritize(resource, allRunPods, nowMillis))
+                .collect(toUnmodifiableList()),
+            RunResource::getPriority);
 
-    val staleRunPods = toCleanup(allRunPods, RunPod::getAge, properties.getPodRotationDays());
-    val staleConfigMaps =
-        toCleanup(configMaps, ConfigMap::getAge, properties.getConfigMapRotationDays());
+    val terminatedRunIds = allRunPods.getTerminatedRunIds();
 
-    return createActiveToInactiveRunUpdates(rdpcGatewayService.getAlLActiveRuns(req), allRunPods)
+    return chooseReconcileStrategy(req, terminatedRunIds.size())
+        .flatMap(
+            strategy -> {
+              val observations = new ArrayList<RunStateObservation>();
+              return createActiveToInactiveRunUpdates(
+                      getRunsToReconcile(req, strategy, terminatedRunIds),
+                      allRunPods,
+                      kubernetesService::getPodLog,
+                      runStateDebouncer,
+                      observations::add)
+                  .map(
+                      runUpdates ->
+                          byPriority(
+                              runUpdates.stream()
+                                  .map(runUpdate -> prioritizer.prioritize(runUpdate, nowMillis))
+                                  .collect(toUnmodifiableList()),
+                              RunUpdate::getPriority))
+                  .map(runUpdates -> Tuples.of(strategy, runUpdates, List.copyOf(observations)));
+            })
         .map(
-            runUpdates ->
+            planned ->
                 MealPlan.builder()
-                    .runUpdates(runUpdates)
-                    .staleConfigMaps(staleConfigMaps)
-                    .staleRunPods(staleRunPods)
+                    .id(UUID.randomUUID().toString())
+                    .request(req)
+                    .reconcileStrategy(planned.getT1())
+                    .runUpdates(planned.getT2())
+                    .staleResources(staleResources)
+                    .staleRunPods(
+                        byPriority(
+                            toCleanup(
+                                allRunPods,
+                                properties.getPodRotationDays(),
+                                properties.getMaxCompletedPodsPerCluster(),
+                                row -> prioritizer.runPodPriority(allRunPods, row, nowMillis),
+                                heldBackRunIds(planned.getT2(), planned.getT3())),
+                            RunPod::getPriority))
+                    .runStateObservations(planned.getT3())
                     .build());
   }
 
-  private Mono<Boolean> executeMealPlan(MealPlan mealPlan) {
-    val clientList = kubernetesService.createKubernetesClient();
-    val updateRuns =
-        Flux.fromIterable(mealPlan.getRunUpdates())
-            .delayElements(Duration.ofSeconds(properties.getRelayWeblogDelaySec()))
-            .concatMap(relayWeblogService::updateRunViaWeblog);
+  /**
+   * Runs seen in another state than rdpc's whose transition isn't confirmed yet. Their pods are
+   * kept, deleting them would turn the transition into a missing pod and lose the pod log.
+   */
+  private static Set<String> heldBackRunIds(
+      List<RunUpdate> runUpdates, List<RunStateObservation> observations) {
+    val heldBack = new HashSet<String>();
+    observations.stream()
+        .filter(observation -> observation.getObservedState() != observation.getRdpcState())
+        .forEach(observation -> heldBack.add(observation.getRunId()));
+    runUpdates.forEach(runUpdate -> heldBack.remove(runUpdate.getRunId()));
+    return heldBack;
+  }
 
-    val deleteStaleRunPods =
-        Flux.fromIterable(mealPlan.getStaleRunPods())
-            .delayElements(Duration.ofSeconds(properties.getKubeCleanUpDelaySec()))
-            .map(kubernetesService::deleteAllPod);
+  /** Resolves AUTO to the strategy with fewer items to go through. */
+  private Mono<ReconcileStrategy> chooseReconcileStrategy(
+      RunUpdatesRequest req, int terminatedRunCount) {
+    if (req.getReconcileStrategy() != ReconcileStrategy.AUTO) {
+      return Mono.just(req.getReconcileStrategy());
+    }
+    return rdpcGatewayService
+        .countActiveRuns(req)
+        .map(
+            activeRunCount ->
+                terminatedRunCount < activeRunCount
+                    ? ReconcileStrategy.TERMINATED_PODS
+                    : ReconcileStrategy.ACTIVE_RUNS)
+        .defaultIfEmpty(ReconcileStrategy.ACTIVE_RUNS)
+        .doOnNext(
+            strategy ->
+                log.info(
+                    "Reconciling from {} ({} terminated run pods)", strategy, terminatedRunCount));
+  }
 
-    val deleteStaleConfigMaps =
-        Flux.fromIterable(mealPlan.getStaleConfigMaps())
-            .delayElements(Duration.ofSeconds(properties.getKubeCleanUpDelaySec()))
-            .map(kubernetesService::deleteAllConfigMap);
+  private Flux<Run> getRunsToReconcile(
+      RunUpdatesRequest req, ReconcileStrategy strategy, List<String> terminatedRunIds) {
+    if (strategy == ReconcileStrategy.TERMINATED_PODS) {
+      val includedStates = req.includedStates();
+      return rdpcGatewayService
+          .getRunsByIds(terminatedRunIds)
+          .filter(run -> includedStates.contains(run.getState()));
+    }
+    return rdpcGatewayService.getAlLActiveRuns(req);
+  }
+
+  private Mono<Boolean> executeMealPlan(MealPlan mealPlan, PassExecution execution) {
+    executionJournal.begin(mealPlan);
+    val operations =
+        Flux.defer(() -> Flux.fromIterable(queueOperations(mealPlan, execution)))
+            .concatMap(
+                operation -> {
+                  // ownership is checked again right before running, the lease may have been lost
+                  // or rebalanced to another replica since the operations were queued
+                  val executed =
+                      Mono.defer(
+                          () ->
+                              isOwned(operation.getShardKey(), execution, operation.getPhase())
+                                  ? isolated(
+                                      operation.getTarget(),
+                                      execution,
+                                      operation.getPhase(),
+                                      Mono.defer(operation.getAction()))
+                                  : Mono.empty());
+                  return operation.getDelay().isZero()
+                      ? executed
+                      : Mono.delay(operation.getDelay()).then(executed);
+                });
 
-    return Flux.concat(updateRuns, deleteStaleRunPods, deleteStaleConfigMaps)
+    return operations
         .count() // to make sure all elements in flux complete
-        .map(count -> count == mealPlan.getOperationsCount())
-        .onErrorReturn(false);
+        .map(
+            count ->
+                count + execution.getSkippedCount() == mealPlan.getOperationsCount()
+                    && execution.getFailedCount() == 0)
+        .onErrorReturn(false)
+        // only a crash or shutdown mid execution should leave the journal behind for resuming
+        .doOnNext(successful -> executionJournal.end());
+  }
+
+  /**
+   * The owned operations of every phase in a single queue, highest priority first, so when the
+   * deadline or the rate limits cut a pass short it is the least valuable work that's left over.
+   * Ties keep the phase order: run updates, then stale run pods, then other stale resources.
+   */
+  private List<QueuedOperation> queueOperations(MealPlan mealPlan, PassExecution execution) {
+    val relayDelay = Duration.ofSeconds(properties.getRelayWeblogDelaySec());
+    val cleanUpDelay = Duration.ofSeconds(properties.getKubeCleanUpDelaySec());
+    val queue = new ArrayList<QueuedOperation>();
+    mealPlan.getRunUpdates().stream()
+        .filter(
+            runUpdate -> isOwned(runUpdate.getRunId(), execution, PassExecution.Phase.RUN_UPDATES))
+        .map(
+            runUpdate ->
+                new QueuedOperation(
+                    PassExecution.Phase.RUN_UPDATES,
+                    runUpdate.getRunId(),
+                    runUpdate.getRunId(),
+                    runUpdate.getPriority(),
+                    relayDelay,
+                    () ->
+                        relayWeblogService
+                            .updateRunViaWeblog(runUpdate)
+                            .doOnNext(
+                                updated -> {
+                                  if (updated) {
+                                    executionJournal.completed(runUpdate);
+                                  }
+                                })))
+        .forEach(queue::add);
+    mealPlan.getStaleRunPods().stream()
+        .filter(runPod -> isOwned(runPod.getRunId(), execution, PassExecution.Phase.STALE_RUN_PODS))
+        .map(
+            runPod ->
+                new QueuedOperation(
+                    PassExecution.Phase.STALE_RUN_PODS,
+                    runPod.getRunId(),
+                    runPod.getRunId(),
+                    runPod.getPriority(),
+                    cleanUpDelay,
+                    () ->
+                        Tracing.fromCallable(
+                                () -> {
+                                  val deleted = kubernetesService.deleteRunPod(runPod);
+                                  if (deleted) {
+                                    executionJournal.completed(runPod);
+                                  }
+                                  return deleted;
+                                })
+                            // blocking call, off the timer thread so the operation timeout can fire
+                            .subscribeOn(Schedulers.boundedElastic())))
+        .forEach(queue::add);
+    mealPlan.getStaleResources().stream()
+        .filter(
+            resource -> isOwned(shardKey(resource), execution, PassExecution.Phase.STALE_RESOURCES))
+        .map(
+            resource ->
+                new QueuedOperation(
+                    PassExecution.Phase.STALE_RESOURCES,
+                    resource.getKind() + "/" + resource.getName(),
+                    shardKey(resource),
+                    resource.getPriority(),
+                    cleanUpDelay,
+                    () ->
+                        Tracing.fromCallable(
+                                () -> {
+                                  val deleted = kubernetesService.deleteRunResource(resource);
+                                  if (deleted) {
+                                    executionJournal.completed(resource);
+                                  }
+                                  return deleted;
+                                })
+                            .subscribeOn(Schedulers.boundedElastic())))
+        .forEach(queue::add);
+    // stable, unlike a PriorityQueue, all operations are known upfront so sorting once is enough
+    queue.sort(Comparator.comparingDouble(QueuedOperation::getPriority).reversed());
+    return queue;
+  }
+
+  // operations on runs in the shards of other replicas are left to those replicas
+  private boolean isOwned(String runId, PassExecution execution, PassExecution.Phase phase) {
+    if (shardCoordinator.owns(runId)) {
+      return true;
+    }
+    execution.operationSkipped(phase);
+    return false;
+  }
+
+  private static String shardKey(RunResource resource) {
+    return resource.getRunId() == null ? resource.getName() : resource.getRunId();
+  }
+
+  private Mono<Boolean> isolated(
+      String target, PassExecution execution, PassExecution.Phase phase, Mono<Boolean> op) {
+    val timeoutSec = properties.getOperationTimeoutSec();
+    return (timeoutSec > 0 ? op.timeout(Duration.ofSeconds(timeoutSec)) : op)
+        .doOnNext(done -> execution.operationDone(phase, false))
+        .onErrorResume(
+            error -> {
+              execution.operationDone(phase, true);
+              log.error(
+                  "Meal plan operation on {} failed, moving on: {}", target, error.toString());
+              return Mono.just(false);
+            });
   }
 
-  private Mono<List<RunUpdate>> createActiveToInactiveRunUpdates(
-      Flux<Run> activeRdpcRuns, List<RunPod> allRunPods) {
-    val kubeRunsLookUp = new HashMap<String, RunPod>();
-    allRunPods.forEach(
-        kubeRun -> {
-          if (kubeRunsLookUp.containsKey(kubeRun.getRunId())) {
-            throw new Error("Found two kubernetes runs with same id! Shouldn't be possible!");
-          }
-          kubeRunsLookUp.put(kubeRun.getRunId(), kubeRun);
-        });
+  /**
+   * A run changes state once its pod was seen in the new state long enough, a run without pod once
+   * it was missing long enough, runs whose pod state says nothing (UNKNOWN) are left alone. Whether
+   * it was seen long enough is only looked up, what was seen is handed to the observer for the
+   * debouncer to record if the plan gets executed.
+   */
+  // package-private and static so the planning path can be benchmarked in isolation
+  static Mono<List<RunUpdate>> createActiveToInactiveRunUpdates(
+      Flux<Run> activeRdpcRuns,
+      RunPodTable allRunPods,
+      BiFunction<String, String, PodLog> podLogs,
+      RunStateDebouncer debouncer,
+      Consumer<RunStateObservation> observer) {
+    // thousands of runs share a handful of workflow repositories
+    val workflowUrls = new HashMap<String, String>();
 
     return activeRdpcRuns
         .flatMap(
             rdpcRun -> {
-              val kubeRun = kubeRunsLookUp.get(rdpcRun.getRunId());
+              val row = allRunPods.indexOf(rdpcRun.getRunId());
               val builder =
                   RunUpdate.builder()
                       .runId(rdpcRun.getRunId())
                       .currentState(rdpcRun.getState())
                       .sessionId(rdpcRun.getSessionId())
-                      .workflowUrl(rdpcRun.getRepository());
-              if (kubeRun == null) {
+                      .workflowUrl(
+                          workflowUrls.computeIfAbsent(rdpcRun.getRepository(), url -> url));
+              if (row < 0) {
+                observer.accept(
+                    new RunStateObservation(
+                        rdpcRun.getRunId(), rdpcRun.getState(), WesStates.SYSTEM_ERROR));
+                if (!debouncer.isConfirmed(rdpcRun.getRunId(), WesStates.SYSTEM_ERROR)) {
+                  return Mono.empty();
+                }
                 builder
                     .newState(WesStates.SYSTEM_ERROR)
-                    .logs("")
+                    .logs(PodLog.EMPTY)
                     .startTime(rdpcRun.getStartTime().orElse(OffsetDateTime.now(ZoneOffset.UTC)))
                     .completeTime(OffsetDateTime.now(ZoneOffset.UTC));
                 return Mono.just(builder.build());
-              } else if (!kubeRun.getState().equals(rdpcRun.getState())) {
-                builder
-                    .newState(kubeRun.getState())
-                    .logs(kubeRun.getLog())
-                    .startTime(rdpcRun.getStartTime().orElse(kubeRun.getAge()))
-                    .completeTime(OffsetDateTime.now(ZoneOffset.UTC));
-                return Mono.just(builder.build());
+              }
+              val podState = allRunPods.getState(row);
+              if (podState == WesStates.UNKNOWN) {
+                return Mono.empty();
+              }
+              observer.accept(
+                  new RunStateObservation(rdpcRun.getRunId(), rdpcRun.getState(), podState));
+              if (podState == rdpcRun.getState()) {
+                return Mono.empty();
+              } else if (debouncer.isConfirmed(rdpcRun.getRunId(), podState)) {
+                // only runs with a state change need their pod log, fetched off the event loop
+                return Tracing.fromCallable(
+                        () ->
+                            builder
+                                .newState(podState)
+                                .logs(
+                                    podLogs.apply(
+                                        allRunPods.getRunId(row), allRunPods.getCluster(row)))
+                                .startTime(rdpcRun.getStartTime().orElse(allRunPods.getAge(row)))
+                                .completeTime(OffsetDateTime.now(ZoneOffset.UTC))
+                                .build())
+                    .subscribeOn(Schedulers.boundedElastic());
               } else {
                 return Mono.empty();
               }
-            })
+            },
+            POD_LOG_CONCURRENCY)
         .collectList();
   }
 
-  private <T> List<T> toCleanup(
-      List<T> resources, Function<T, OffsetDateTime> dateGetterFunction, Integer rotationDays) {
-    if (rotationDays < 0) {
+  /** Pods of the run trees older than the rotation, a run's tasks go along with it. */
+  static List<RunPod> toCleanup(RunPodTable runPods, Integer rotationDays) {
+    return toCleanup(runPods, rotationDays, -1, row -> 0, Set.of());
+  }
+
+  /**
+   * Pods of the run trees older than the rotation, and of the oldest completed run trees of the
+   * clusters holding more completed pods than the quota. Either is disabled when negative. The run
+   * trees of the kept runs are left alone.
+   */
+  static List<RunPod> toCleanup(
+      RunPodTable runPods,
+      Integer rotationDays,
+      Integer maxCompletedPodsPerCluster,
+      IntToDoubleFunction priorities,
+      Set<String> keptRunIds) {
+    if (rotationDays < 0 && maxCompletedPodsPerCluster < 0) {
       return List.of();
     }
-    val rotationTime = now().minusDays(rotationDays.longValue());
-    return resources.stream()
-        .filter(resource -> dateGetterFunction.apply(resource).isBefore(rotationTime))
+    val cutoff = rotationDays < 0 ? Long.MIN_VALUE : rotationCutoffMillis(rotationDays);
+    return runPods.staleRunTrees(cutoff, maxCompletedPodsPerCluster, priorities, keptRunIds);
+  }
+
+  /** Highest priority first, ties keep their order. */
+  private static <T> List<T> byPriority(List<T> operations, ToDoubleFunction<T> priority) {
+    return operations.stream()
+        .sorted(Comparator.comparingDouble(priority).reversed())
         .collect(toUnmodifiableList());
   }
+
+  /**
+   * Resources older than the rotation of their kind, plus the oldest ones of each cluster beyond
+   * the quota of their kind. Kinds following the run tree go by the age of the run pod instead, or
+   * by their own if orphaned.
+   */
+  static List<RunResource> toCleanup(
+      List<RunResource> resources, RunPodTable runPods, List<ReaperKind> kinds) {
+    val kindsByName = new HashMap<String, ReaperKind>();
+    kinds.forEach(kind -> kindsByName.put(kind.getName(), kind));
+    val stale = new ArrayList<RunResource>();
+    // newest first within each kind and cluster, so whatever is past the quota is the oldest
+    val byKindAndCluster =
+        resources.stream()
+            .filter(resource -> kindsByName.containsKey(resource.getKind()))
+            .collect(
+                groupingBy(
+                    resource -> resource.getKind() + "/" + resource.getCluster(),
+                    LinkedHashMap::new,
+                    toList()));
+    for (val group : byKindAndCluster.values()) {
+      val kind = kindsByName.get(group.get(0).getKind());
+      val cutoff =
+          kind.getRotationDays() < 0
+              ? Long.MIN_VALUE
+              : rotationCutoffMillis(kind.getRotationDays());
+      val maxPerCluster = kind.getMaxPerCluster() < 0 ? Integer.MAX_VALUE : kind.getMaxPerCluster();
+      ToLongFunction<RunResource> ageMillis =
+          resource -> {
+            val ownAge = resource.getAge().toInstant().toEpochMilli();
+            return kind.getFollowRunTree()
+                ? runPods.getRunTreeAgeMillis(resource.getRunId(), ownAge)
+                : ownAge;
+          };
+      group.sort(Comparator.comparingLong(ageMillis).reversed());
+      for (int i = 0; i < group.size(); i++) {
+        if (i >= maxPerCluster || ageMillis.applyAsLong(group.get(i)) < cutoff) {
+          stale.add(group.get(i));
+        }
+      }
+    }
+    return stale;
+  }
+
+  private static long rotationCutoffMillis(Integer rotationDays) {
+    return now().minusDays(rotationDays.longValue()).toInstant().toEpochMilli();
+  }
+
+  @Value
+  private static class QueuedOperation {
+    PassExecution.Phase phase;
+    String target;
+    String shardKey; // the run, or resource, whose shard owner executes it
+    double priority;
+    Duration delay; // before the operation, the rate limit of its phase
+    Supplier<Mono<Boolean>> action;
+  }
+
+  @Value
+  private static class PendingPass {
+    RunUpdatesRequest request;
+    MealPlan mealPlan; // null when the meal plan still needs to be computed
+    PassExecution execution;
+  }
 }
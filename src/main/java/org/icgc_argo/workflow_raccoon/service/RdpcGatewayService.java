@@ -20,24 +20,35 @@ package org.icgc_argo.workflow_raccoon.service;
 
 import static org.springframework.security.oauth2.core.AuthorizationGrantType.CLIENT_CREDENTIALS;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.icgc_argo.workflow_raccoon.model.RunUpdatesRequest;
 import org.icgc_argo.workflow_raccoon.model.WesStates;
+import org.icgc_argo.workflow_raccoon.model.rdpc.GqlRunLookupResponse;
 import org.icgc_argo.workflow_raccoon.model.rdpc.GqlRunsResponse;
 import org.icgc_argo.workflow_raccoon.model.rdpc.Run;
+import org.icgc_argo.workflow_raccoon.model.rdpc.SearchResult;
 import org.icgc_argo.workflow_raccoon.properties.RdpcProperties;
+import org.icgc_argo.workflow_raccoon.utils.Resilience;
 import org.springframework.http.MediaType;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.oauth2.client.AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager;
 import org.springframework.security.oauth2.client.ClientCredentialsReactiveOAuth2AuthorizedClientProvider;
 import org.springframework.security.oauth2.client.InMemoryReactiveOAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.OAuth2AuthorizeRequest;
+import org.springframework.security.oauth2.client.ReactiveOAuth2AuthorizedClientManager;
 import org.springframework.security.oauth2.client.registration.ClientRegistration;
 import org.springframework.security.oauth2.client.registration.InMemoryReactiveClientRegistrationRepository;
 import org.springframework.security.oauth2.client.web.reactive.function.client.ServerOAuth2AuthorizedClientExchangeFilterFunction;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -48,14 +59,38 @@ import reactor.util.function.Tuples;
 @Service
 public class RdpcGatewayService {
   private static final Integer DEFAULT_SIZE = 20;
+  private static final int LOOKUP_BATCH_SIZE = 50;
+  private static final String RUN_FIELDS =
+      "content {\n"
+          + "      runId\n"
+          + "      sessionId\n"
+          + "      repository\n"
+          + "      state\n"
+          + "      startTime\n"
+          + "    }\n";
   private static final String RESOURCE_ID_HEADER = "X-Resource-ID";
   private static final String OUATH_RESOURCE_ID = "rdpcOauth";
+  // the principal the oauth filter authorizes as outside of a request, so both share the token
+  private static final AnonymousAuthenticationToken ANONYMOUS_USER =
+      new AnonymousAuthenticationToken(
+          "anonymous", "anonymousUser", AuthorityUtils.createAuthorityList("ROLE_USER"));
+  private final ReactiveOAuth2AuthorizedClientManager authorizedClientManager;
   private final WebClient webClient;
+  private final RaccoonMetrics metrics;
+  private final Resilience resilience;
 
-  public RdpcGatewayService(RdpcProperties properties) {
+  public RdpcGatewayService(RdpcProperties properties, RaccoonMetrics metrics) {
+    this.metrics = metrics;
+    this.resilience = new Resilience("rdpc", properties.getResilience());
+    this.authorizedClientManager =
+        createAuthorizedClientManager(
+            properties.getTokenUrl(),
+            properties.getClientId(),
+            properties.getClientSecret(),
+            Duration.ofSeconds(properties.getTokenRefreshBeforeExpirySec()));
     val oauthFilter =
-        createOauthFilter(
-            properties.getTokenUrl(), properties.getClientId(), properties.getClientSecret());
+        new ServerOAuth2AuthorizedClientExchangeFilterFunction(authorizedClientManager);
+    oauthFilter.setDefaultClientRegistrationId(OUATH_RESOURCE_ID);
 
     webClient =
         WebClient.builder()
@@ -67,6 +102,24 @@ public class RdpcGatewayService {
     log.info("RdpcGatewayService is ready");
   }
 
+  /**
+   * Authorizes the same way the oauth filter does, which only gets a new token once the current one
+   * expires within the refresh window. Emits when the token in use expires.
+   */
+  public Mono<Instant> refreshToken() {
+    return authorizedClientManager
+        .authorize(
+            OAuth2AuthorizeRequest.withClientRegistrationId(OUATH_RESOURCE_ID)
+                .principal(ANONYMOUS_USER)
+                .build())
+        .flatMap(client -> Mono.justOrEmpty(client.getAccessToken().getExpiresAt()));
+  }
+
+  /** Fetches a single run, opening a pooled connection and going through the response parsing. */
+  public Mono<Void> warmUp() {
+    return getRunsFrom(0, 1, WesStates.RUNNING, false).then();
+  }
+
   public Flux<Run> getAlLActiveRuns(RunUpdatesRequest req) {
     Flux<Run> flux = getAllRunsWithState(WesStates.RUNNING);
     if (req.isIncludeCancellingRuns()) {
@@ -81,6 +134,64 @@ public class RdpcGatewayService {
     return flux;
   }
 
+  /**
+   * Number of runs the request would fetch with {@link #getAlLActiveRuns}, empty if the gateway
+   * doesn't report total hits.
+   */
+  public Mono<Long> countActiveRuns(RunUpdatesRequest req) {
+    return Flux.fromIterable(req.includedStates())
+        .concatMap(
+            state ->
+                getRunsFrom(0, 1, state, true)
+                    .flatMap(
+                        res -> Mono.justOrEmpty(res.getData().getRuns().getInfo().getTotalHits()))
+                    .switchIfEmpty(Mono.error(new UnknownCountException())))
+        .reduce(0L, Long::sum)
+        .onErrorResume(UnknownCountException.class, e -> Mono.empty());
+  }
+
+  /**
+   * Looks up the runs with the given ids, in batches of aliased queries rather than one request per
+   * run. Ids unknown to rdpc are skipped.
+   */
+  public Flux<Run> getRunsByIds(Collection<String> runIds) {
+    return Flux.fromIterable(runIds)
+        .buffer(LOOKUP_BATCH_SIZE)
+        .concatMap(batch -> metrics.timeRdpcLookup(getRunsByIdsInBatch(batch)))
+        .flatMapIterable(res -> res.getData().values())
+        .filter(result -> result != null && result.getContent() != null)
+        .flatMapIterable(SearchResult::getContent);
+  }
+
+  private Mono<GqlRunLookupResponse> getRunsByIdsInBatch(List<String> runIds) {
+    val query = new StringBuilder("query (");
+    val variables = new HashMap<String, Object>();
+    for (int i = 0; i < runIds.size(); i++) {
+      query.append(i == 0 ? "" : ", ").append("$r").append(i).append(": String!");
+      variables.put("r" + i, runIds.get(i));
+    }
+    query.append(") {\n");
+    for (int i = 0; i < runIds.size(); i++) {
+      query
+          .append("  r")
+          .append(i)
+          .append(": runs(filter: {runId: $r")
+          .append(i)
+          .append("}) {\n    ")
+          .append(RUN_FIELDS)
+          .append("  }\n");
+    }
+    query.append("}\n");
+    return webClient
+        .post()
+        .uri("")
+        .contentType(MediaType.APPLICATION_JSON)
+        .bodyValue(Map.of("query", query.toString(), "variables", variables))
+        .retrieve()
+        .bodyToMono(GqlRunLookupResponse.class)
+        .transform(resilience::apply);
+  }
+
   private Flux<Run> getAllRunsWithState(@NonNull WesStates state) {
     return getRunsInPage(0, state)
         .expand(
@@ -96,35 +207,39 @@ public class RdpcGatewayService {
   }
 
   private Mono<Tuple2<Integer, GqlRunsResponse>> getRunsInPage(Integer page, WesStates state) {
-    return getRunsFrom(page * DEFAULT_SIZE, DEFAULT_SIZE, state)
+    return metrics
+        .timeRdpcPage(state, getRunsFrom(page * DEFAULT_SIZE, DEFAULT_SIZE, state, false))
+        .doOnNext(
+            gqlRunsResponse ->
+                metrics.recordRdpcRuns(
+                    state, gqlRunsResponse.getData().getRuns().getContent().size()))
         .map(gqlRunsResponse -> Tuples.of(page, gqlRunsResponse));
   }
 
-  private Mono<GqlRunsResponse> getRunsFrom(Integer from, Integer size, WesStates state) {
-    val body = createBody(from, size, state);
+  private Mono<GqlRunsResponse> getRunsFrom(
+      Integer from, Integer size, WesStates state, boolean withTotalHits) {
+    val body = createBody(from, size, state, withTotalHits);
     return webClient
         .post()
         .uri("")
         .contentType(MediaType.APPLICATION_JSON)
         .bodyValue(body)
         .retrieve()
-        .bodyToMono(GqlRunsResponse.class);
+        .bodyToMono(GqlRunsResponse.class)
+        .transform(resilience::apply);
   }
 
-  private Map<String, Object> createBody(Integer from, Integer size, WesStates state) {
+  private Map<String, Object> createBody(
+      Integer from, Integer size, WesStates state, boolean withTotalHits) {
     val QUERY =
         "query ($from: Int!, $size: Int!, $state:String!) {\n"
             + "  runs(filter: {state: $state}, sorts: {fieldName: startTime, order: asc}, page: {from: $from, size: $size}) {\n"
             + "    info {\n"
             + "      hasNextFrom\n"
+            + (withTotalHits ? "      totalHits\n" : "")
             + "    }\n"
-            + "    content {\n"
-            + "      runId\n"
-            + "      sessionId\n"
-            + "      repository\n"
-            + "      state\n"
-            + "      startTime\n"
-            + "    }\n"
+            + "    "
+            + RUN_FIELDS
             + "  }\n"
             + "}\n";
     val variables = Map.of("from", from, "size", size, "state", state.getValue());
@@ -132,8 +247,10 @@ public class RdpcGatewayService {
     return Map.of("query", QUERY, "variables", variables);
   }
 
-  private ExchangeFilterFunction createOauthFilter(
-      String tokenUrl, String clientId, String clientSecret) {
+  private static class UnknownCountException extends RuntimeException {}
+
+  private ReactiveOAuth2AuthorizedClientManager createAuthorizedClientManager(
+      String tokenUrl, String clientId, String clientSecret, Duration refreshBeforeExpiry) {
     // create client registration with Id for lookup by filter when needed
     val registration =
         ClientRegistration.withRegistrationId(OUATH_RESOURCE_ID)
@@ -150,12 +267,9 @@ public class RdpcGatewayService {
     val authorizedClientManager =
         new AuthorizedClientServiceReactiveOAuth2AuthorizedClientManager(
             repo, authorizedClientService);
-    authorizedClientManager.setAuthorizedClientProvider(
-        new ClientCredentialsReactiveOAuth2AuthorizedClientProvider());
-
-    // create filter function
-    val oauth = new ServerOAuth2AuthorizedClientExchangeFilterFunction(authorizedClientManager);
-    oauth.setDefaultClientRegistrationId(OUATH_RESOURCE_ID);
-    return oauth;
+    val authorizedClientProvider = new ClientCredentialsReactiveOAuth2AuthorizedClientProvider();
+    authorizedClientProvider.setClockSkew(refreshBeforeExpiry);
+    authorizedClientManager.setAuthorizedClientProvider(authorizedClientProvider);
+    return authorizedClientManager;
   }
 }
@@ -18,30 +18,68 @@
 
 package org.icgc_argo.workflow_raccoon.service;
 
-import static org.icgc_argo.workflow_raccoon.utils.JacksonUtils.toJsonString;
+import static org.icgc_argo.workflow_raccoon.utils.JacksonUtils.writeJson;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.List;
 import java.util.Objects;
 import javax.annotation.PostConstruct;
-import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
 import org.icgc_argo.workflow_raccoon.model.RunUpdate;
 import org.icgc_argo.workflow_raccoon.model.WesStates;
 import org.icgc_argo.workflow_raccoon.model.weblog.NextflowEvent;
 import org.icgc_argo.workflow_raccoon.model.weblog.WfMgmtEvent;
+import org.icgc_argo.workflow_raccoon.properties.RaccoonProperties;
 import org.icgc_argo.workflow_raccoon.properties.WeblogProperties;
+import org.icgc_argo.workflow_raccoon.utils.ExpiringCache;
+import org.icgc_argo.workflow_raccoon.utils.LogSampler;
+import org.icgc_argo.workflow_raccoon.utils.Resilience;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class RelayWeblogService {
+  private static final int BODY_CHUNK_SIZE = 16 * 1024;
+
   private final WeblogProperties properties;
+  private final RaccoonMetrics metrics;
+  private final Resilience resilience;
+  private final LogSampler relayLogs;
+
+  // updates relayed recently, the weblog/rdpc can lag behind so the same run is often re-detected
+  private final ExpiringCache<RelayedUpdate, Boolean> relayedUpdates;
+
+  public RelayWeblogService(
+      WeblogProperties properties, RaccoonProperties raccoonProperties, RaccoonMetrics metrics) {
+    this.properties = properties;
+    this.metrics = metrics;
+    this.resilience = new Resilience("weblog", properties.getResilience());
+    this.relayLogs = new LogSampler(raccoonProperties.getItemLogSampleRate());
+    this.relayedUpdates =
+        new ExpiringCache<>(
+            Duration.ofSeconds(properties.getRelayedUpdatesCacheTtlSec()),
+            properties.getRelayedUpdatesCacheMaxSize());
+  }
 
   @PostConstruct
   public void postConstruct() {
@@ -49,38 +87,30 @@ public class RelayWeblogService {
   }
 
   public Mono<Boolean> updateRunViaWeblog(RunUpdate runUpdate) {
-    log.info(
+    val relayedUpdate = new RelayedUpdate(runUpdate.getRunId(), runUpdate.getNewState());
+    if (relayedUpdates.get(relayedUpdate).isPresent()) {
+      relayLogs.log(
+          log,
+          "Skipping update of run {} to {}, it was already sent to weblog recently",
+          runUpdate.getRunId(),
+          runUpdate.getNewState());
+      metrics.recordWeblogRelaySkipped(runUpdate.getNewState());
+      return Mono.just(true);
+    }
+    log.debug(
         "Trying to update run {} from {} to {}",
         runUpdate.getRunId(),
         runUpdate.getCurrentState(),
         runUpdate.getNewState());
-    Object event;
-    if (runUpdate.getNewState().equals(WesStates.EXECUTOR_ERROR)) {
-      // executor error events need to be sent via a NextflowEvent
-      event =
-          new NextflowEvent(
-              runUpdate.getRunId(),
-              runUpdate.getSessionId(),
-              "ERROR",
-              runUpdate.getStartTime(),
-              runUpdate.getCompleteTime(),
-              runUpdate.getLogs(),
-              false,
-              runUpdate.getWorkflowUrl());
-    } else {
-      event =
-          WfMgmtEvent.builder()
-              .runId(runUpdate.getRunId())
-              .workflowUrl(runUpdate.getWorkflowUrl())
-              .event(runUpdate.getNewState().getValue())
-              .utcTime(OffsetDateTime.now(ZoneOffset.UTC))
-              .build();
-    }
-    return sendHttpMessage(event)
+    val event = toWeblogEvent(runUpdate);
+    return metrics
+        .timeWeblogRelay(runUpdate.getNewState(), sendHttpMessage(runUpdate.getRunId(), event))
         .doOnNext(
             success -> {
               if (success) {
-                log.info(
+                relayedUpdates.put(relayedUpdate, true);
+                relayLogs.log(
+                    log,
                     "Message sent to weblog to update run {} from {} to {}",
                     runUpdate.getRunId(),
                     runUpdate.getCurrentState(),
@@ -95,12 +125,75 @@ public class RelayWeblogService {
             });
   }
 
-  private Mono<Boolean> sendHttpMessage(Object obj) {
-    val jsonStr = toJsonString(obj);
+  /**
+   * Runs both kinds of events through the serializer, for the JIT, and opens a pooled connection to
+   * the weblog. Whatever it answers a HEAD with, the connection is there for the first relays.
+   */
+  public Mono<Void> warmUp(int serializations) {
+    return Mono.fromRunnable(
+            () -> {
+              val now = OffsetDateTime.now(ZoneOffset.UTC);
+              val runUpdate =
+                  RunUpdate.builder()
+                      .runId("wes-warmup")
+                      .sessionId("warmup")
+                      .workflowUrl(properties.getUrl())
+                      .currentState(WesStates.RUNNING)
+                      .newState(WesStates.EXECUTOR_ERROR)
+                      .startTime(now)
+                      .completeTime(now)
+                      .logs(PodLog.of("warm-up"))
+                      .build();
+              val events =
+                  List.of(
+                      toWeblogEvent(runUpdate),
+                      toWeblogEvent(runUpdate.toBuilder().newState(WesStates.COMPLETE).build()));
+              for (int i = 0; i < serializations; i++) {
+                for (val event : events) {
+                  try {
+                    writeJson(OutputStream.nullOutputStream(), event);
+                  } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                  }
+                }
+              }
+            })
+        .subscribeOn(Schedulers.boundedElastic())
+        .then(
+            WebClient.create(properties.getUrl())
+                .head()
+                .retrieve()
+                .toBodilessEntity()
+                .onErrorResume(WebClientResponseException.class, e -> Mono.empty()))
+        .then();
+  }
+
+  static Object toWeblogEvent(RunUpdate runUpdate) {
+    if (runUpdate.getNewState().equals(WesStates.EXECUTOR_ERROR)) {
+      // executor error events need to be sent via a NextflowEvent
+      return new NextflowEvent(
+          runUpdate.getRunId(),
+          runUpdate.getSessionId(),
+          "ERROR",
+          runUpdate.getStartTime(),
+          runUpdate.getCompleteTime(),
+          runUpdate.getLogs(),
+          false,
+          runUpdate.getWorkflowUrl());
+    }
+    return WfMgmtEvent.builder()
+        .runId(runUpdate.getRunId())
+        .workflowUrl(runUpdate.getWorkflowUrl())
+        .event(runUpdate.getNewState().getValue())
+        .utcTime(OffsetDateTime.now(ZoneOffset.UTC))
+        .build();
+  }
+
+  private Mono<Boolean> sendHttpMessage(String runId, Object obj) {
     return WebClient.create(properties.getUrl())
         .post()
         .contentType(MediaType.APPLICATION_JSON)
-        .bodyValue(jsonStr)
+        .body(BodyInserters.fromDataBuffers(toJsonBody(obj)))
         .retrieve()
         .toEntity(Boolean.class)
         .flatMap(
@@ -110,8 +203,88 @@ public class RelayWeblogService {
                 log.debug("*** Failed to send event to weblog! ***");
                 return Mono.error(new Exception("Failed to send event to weblog!"));
               }
-              log.debug("Message sent to weblog: " + jsonStr);
+              log.debug("Message sent to weblog for run {}", runId);
               return Mono.just(res.getBody());
-            });
+            })
+        .transform(resilience::apply);
+  }
+
+  /**
+   * Serializes the event as the request body is consumed, so the pod log it carries is inflated and
+   * escaped a chunk at a time instead of being built into one string. Resubscribing, e.g. on retry,
+   * serializes it again. A failure to serialize fails the body rather than ending it early.
+   */
+  static Flux<DataBuffer> toJsonBody(Object event) {
+    return DataBufferUtils.readInputStream(
+            () -> {
+              val body = new JsonBodyPipe();
+              Schedulers.boundedElastic().schedule(() -> body.write(event));
+              return body;
+            },
+            DefaultDataBufferFactory.sharedInstance,
+            BODY_CHUNK_SIZE)
+        // reading the pipe blocks, keep it off the event loop
+        .subscribeOn(Schedulers.boundedElastic());
+  }
+
+  /** Pipe an event is serialized into on one thread and read from, as a body, on another. */
+  private static class JsonBodyPipe extends PipedInputStream {
+    private final PipedOutputStream writer;
+    private volatile boolean closed;
+    private volatile Exception failure;
+
+    JsonBodyPipe() throws IOException {
+      super(BODY_CHUNK_SIZE);
+      this.writer = new PipedOutputStream(this);
+    }
+
+    void write(Object event) {
+      try {
+        writeJson(writer, event);
+      } catch (IOException | RuntimeException e) {
+        if (closed) {
+          // the reading side was closed, i.e. the request was cancelled or failed
+          log.debug("Stopped writing weblog event: {}", e.getMessage());
+        } else {
+          // recorded before the pipe is closed, so the reader sees it instead of the end of it
+          failure = e;
+        }
+      } finally {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          log.debug("Failed to close weblog event pipe: {}", e.getMessage());
+        }
+      }
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+      return checkFailure(super.read());
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+      return checkFailure(super.read(b, off, len));
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+
+    private int checkFailure(int read) throws IOException {
+      if (read == -1 && failure != null) {
+        throw new IOException("Failed to serialize weblog event", failure);
+      }
+      return read;
+    }
+  }
+
+  @Value
+  private static class RelayedUpdate {
+    String runId;
+    WesStates newState;
   }
 }
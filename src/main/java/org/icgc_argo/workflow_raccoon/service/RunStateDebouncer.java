@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.LongSupplier;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.RunStateObservation;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+import org.icgc_argo.workflow_raccoon.properties.RaccoonProperties;
+import org.icgc_argo.workflow_raccoon.utils.ExpiringCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds back run state transitions until the same new state was observed by enough passes over a
+ * long enough window, so pods flapping between phases or runs whose pod isn't scheduled yet are not
+ * relayed to weblog.
+ */
+@Slf4j
+@Component
+public class RunStateDebouncer {
+  private static final int MAX_PENDING_TRANSITIONS = 100_000;
+
+  private final int requiredObservations;
+  private final long windowNanos;
+  private final LongSupplier nanoTime;
+  private final RaccoonMetrics metrics;
+  // runs whose observed state differs from rdpc, until they agree again or aren't observed anymore
+  private final ExpiringCache<String, PendingTransition> pending;
+
+  @Autowired
+  public RunStateDebouncer(RaccoonProperties properties, RaccoonMetrics metrics) {
+    this(
+        properties.getRunStateDebounceObservations(),
+        Duration.ofSeconds(properties.getRunStateDebounceWindowSec()),
+        Duration.ofSeconds(properties.getRunStateDebounceMemorySec()),
+        System::nanoTime,
+        metrics);
+  }
+
+  RunStateDebouncer(
+      int requiredObservations,
+      Duration window,
+      Duration memory,
+      LongSupplier nanoTime,
+      RaccoonMetrics metrics) {
+    this.requiredObservations = requiredObservations;
+    this.windowNanos = window.toNanos();
+    this.nanoTime = nanoTime;
+    this.metrics = metrics;
+    this.pending = new ExpiringCache<>(memory, MAX_PENDING_TRANSITIONS, nanoTime);
+  }
+
+  /** Relays every transition as soon as it is observed, nothing is ever held back. */
+  static RunStateDebouncer immediate() {
+    return new RunStateDebouncer(1, Duration.ZERO, Duration.ZERO, System::nanoTime, null);
+  }
+
+  /**
+   * Whether the transition of the run to the state would be confirmed by observing it now, without
+   * recording anything, so planning a pass that is never executed, e.g. a dry-run, doesn't count.
+   */
+  public synchronized boolean isConfirmed(String runId, WesStates observedState) {
+    if (isImmediate()) {
+      return true;
+    }
+    val now = nanoTime.getAsLong();
+    return isConfirmed(observedAgain(runId, observedState, now), now);
+  }
+
+  /** Records the observations planning made for a pass that is being executed. */
+  public synchronized void record(List<RunStateObservation> observations) {
+    for (val observation : observations) {
+      if (observation.getObservedState() == observation.getRdpcState()) {
+        reset(observation.getRunId());
+      } else {
+        confirm(observation.getRunId(), observation.getObservedState());
+      }
+    }
+  }
+
+  /**
+   * Records an observation of the run in a state that differs from rdpc, true once the transition
+   * to it is confirmed. It stays confirmed, e.g. if relaying it failed, until reset or the run is
+   * seen in another state.
+   */
+  public synchronized boolean confirm(String runId, WesStates observedState) {
+    if (isImmediate()) {
+      return true;
+    }
+    val now = nanoTime.getAsLong();
+    val transition = observedAgain(runId, observedState, now);
+    pending.put(runId, transition);
+    if (isConfirmed(transition, now)) {
+      return true;
+    }
+    log.debug(
+        "Holding back transition of run {} to {}, observed {} times",
+        runId,
+        observedState,
+        transition.getObservations());
+    metrics.recordHeldBackTransition(observedState);
+    return false;
+  }
+
+  /** The run was observed in the state rdpc has, any transition seen before was transient. */
+  public synchronized void reset(String runId) {
+    pending.remove(runId);
+  }
+
+  private boolean isImmediate() {
+    return requiredObservations <= 1 && windowNanos == 0;
+  }
+
+  private PendingTransition observedAgain(String runId, WesStates observedState, long now) {
+    return pending
+        .get(runId)
+        .filter(previous -> previous.getState() == observedState)
+        .map(PendingTransition::observedAgain)
+        .orElseGet(() -> new PendingTransition(observedState, now, 1));
+  }
+
+  private boolean isConfirmed(PendingTransition transition, long now) {
+    return transition.getObservations() >= requiredObservations
+        && now - transition.getFirstObservedNanos() >= windowNanos;
+  }
+
+  @Value
+  private static class PendingTransition {
+    WesStates state;
+    long firstObservedNanos;
+    int observations;
+
+    PendingTransition observedAgain() {
+      return new PendingTransition(state, firstObservedNanos, observations + 1);
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.RunUpdate;
+import org.icgc_argo.workflow_raccoon.model.RunUpdatesRequest;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPodTable;
+import org.icgc_argo.workflow_raccoon.properties.WatchProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Relays run terminations as the pod watches see them instead of waiting for the next pass: a wes-
+ * pod reaching Succeeded or Failed is looked up in rdpc and, if its run is still active there,
+ * relayed to weblog within seconds. Only the terminations are looked at, so this is work per event
+ * rather than per run; the passes remain the safety net for anything a watch missed.
+ *
+ * <p>Terminal pod phases are final, so the transitions are relayed without debouncing. Weblog
+ * deduplication keeps the next pass from relaying them again.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "watch.enabled", havingValue = "true")
+public class RunTerminationRelay {
+  private final WatchProperties properties;
+  private final KubernetesService kubernetesService;
+  private final RdpcGatewayService rdpcGatewayService;
+  private final RelayWeblogService relayWeblogService;
+  private final ShardCoordinator shardCoordinator;
+  private final RaccoonMetrics metrics;
+
+  // same runs as a pass with the default request reconciles
+  private final Set<WesStates> activeStates = new RunUpdatesRequest().includedStates();
+  private final Sinks.Many<TerminatedPod> terminations =
+      Sinks.many().unicast().onBackpressureBuffer();
+  private final Disposable.Swap subscriptions = Disposables.swap();
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    val relaying =
+        terminations
+            .asFlux()
+            .filter(terminated -> shardCoordinator.owns(terminated.getRunId()))
+            .bufferTimeout(
+                properties.getBatchSize(), Duration.ofMillis(properties.getBatchWindowMs()))
+            .concatMap(
+                batch ->
+                    relay(batch)
+                        .onErrorResume(
+                            error -> {
+                              log.error(
+                                  "Failed to relay {} run terminations, leaving them to the next pass: {}",
+                                  batch.size(),
+                                  error.toString());
+                              return Mono.empty();
+                            }))
+            .subscribe();
+    val watches =
+        kubernetesService.watchTerminatedRunPods(
+            (cluster, pod) ->
+                // the watches of several clusters may emit at once, spin until the sink is free
+                terminations.emitNext(
+                    new TerminatedPod(cluster, pod),
+                    (signal, result) -> result == Sinks.EmitResult.FAIL_NON_SERIALIZED));
+    subscriptions.update(Disposables.composite(relaying, watches));
+  }
+
+  @PreDestroy
+  public void stop() {
+    subscriptions.dispose();
+  }
+
+  /** Relays the terminations of the batch whose run is still active in rdpc. */
+  Mono<Void> relay(List<TerminatedPod> batch) {
+    // a pod is usually modified a few more times once terminated, e.g. when being deleted
+    val pods = new LinkedHashMap<String, TerminatedPod>();
+    batch.forEach(terminated -> pods.put(terminated.getRunId(), terminated));
+    val table = new RunPodTable();
+    pods.values()
+        .forEach(
+            terminated ->
+                KubernetesService.addRunPod(table, terminated.getCluster(), terminated.getPod()));
+
+    return RaccoonService.createActiveToInactiveRunUpdates(
+            rdpcGatewayService
+                .getRunsByIds(pods.keySet())
+                .filter(run -> activeStates.contains(run.getState())),
+            table,
+            kubernetesService::getPodLog,
+            RunStateDebouncer.immediate(),
+            observation -> {})
+        .flatMapMany(
+            runUpdates -> {
+              pods.values()
+                  .forEach(
+                      terminated ->
+                          metrics.recordWatchedTermination(
+                              terminated.getCluster(),
+                              runUpdates.stream()
+                                  .anyMatch(u -> u.getRunId().equals(terminated.getRunId()))));
+              return Flux.fromIterable(runUpdates);
+            })
+        // checked again right before relaying, the batch may have waited long enough for the
+        // shard to move to another replica
+        .filter(runUpdate -> shardCoordinator.owns(runUpdate.getRunId()))
+        .concatMap(this::relay)
+        .then();
+  }
+
+  /** Relays one update, a failure only leaves that run to the next pass. */
+  private Mono<Boolean> relay(RunUpdate runUpdate) {
+    return relayWeblogService
+        .updateRunViaWeblog(runUpdate)
+        .onErrorResume(
+            error -> {
+              log.error(
+                  "Failed to relay termination of run {}, leaving it to the next pass: {}",
+                  runUpdate.getRunId(),
+                  error.toString());
+              return Mono.just(false);
+            });
+  }
+
+  @Value
+  static class TerminatedPod {
+    String cluster;
+    Pod pod;
+
+    String getRunId() {
+      return pod.getMetadata().getName();
+    }
+  }
+}
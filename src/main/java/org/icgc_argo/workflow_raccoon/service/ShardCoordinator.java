@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.ShardLease;
+import org.icgc_argo.workflow_raccoon.properties.ShardingProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Splits the run ids into hash shards and leases them out among the replicas, so every meal plan
+ * operation is executed by the single replica owning the shard of its run. Each replica renews a
+ * member lease to announce itself, holds at most its fair share of the shard leases and takes over
+ * the shards of replicas that stopped renewing. Without sharding this replica owns every run.
+ */
+@Slf4j
+@Service
+public class ShardCoordinator {
+  private final ShardingProperties properties;
+  private final ShardLeaseBackend backend; // null when sharding is disabled
+  private final Clock clock;
+
+  // shards held, each with the instant after which operations on it may no longer start
+  private volatile Map<Integer, Instant> ownedShards = Map.of();
+  private Disposable renewals;
+
+  @Autowired
+  public ShardCoordinator(ShardingProperties properties, Optional<ShardLeaseBackend> backend) {
+    this(properties, backend.orElse(null), Clock.systemUTC());
+  }
+
+  ShardCoordinator(ShardingProperties properties, ShardLeaseBackend backend, Clock clock) {
+    this.properties = properties;
+    this.backend = backend;
+    this.clock = clock;
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!isEnabled()) {
+      return;
+    }
+    log.info("Replica {} sharding runs into {} shards", properties.getReplicaId(), getShardCount());
+    renewals =
+        Flux.interval(
+                Duration.ZERO,
+                Duration.ofSeconds(properties.getRenewIntervalSec()),
+                Schedulers.boundedElastic())
+            .subscribe(tick -> rebalanceSafely());
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (renewals != null) {
+      renewals.dispose();
+    }
+    if (isEnabled()) {
+      releaseAll();
+    }
+  }
+
+  public boolean isEnabled() {
+    return backend != null && properties.getEnabled();
+  }
+
+  /** True if this replica may execute operations on the run now. */
+  public boolean owns(String runId) {
+    if (!isEnabled()) {
+      return true;
+    }
+    val safeUntil = ownedShards.get(shardOf(runId, getShardCount()));
+    return safeUntil != null && clock.instant().isBefore(safeUntil);
+  }
+
+  public Set<Integer> getOwnedShards() {
+    return ownedShards.keySet();
+  }
+
+  static int shardOf(String runId, int shardCount) {
+    return Math.floorMod(runId.hashCode(), shardCount);
+  }
+
+  private void rebalanceSafely() {
+    try {
+      rebalance();
+    } catch (RuntimeException e) {
+      // the leases run out unless renewed, so a failing backend just stops this replica's work
+      log.warn("Failed to renew shard leases: {}", e.getMessage());
+    }
+  }
+
+  synchronized void rebalance() {
+    val now = clock.instant();
+    val leases = backend.getLeases();
+    val replicaId = properties.getReplicaId();
+    val memberName = memberLeaseName(replicaId);
+    write(leases.get(memberName), memberName, replicaId, now);
+
+    val replicas = new HashSet<String>();
+    replicas.add(replicaId);
+    leases.forEach(
+        (name, lease) -> {
+          if (name.startsWith(memberLeaseName("")) && !lease.isFree(now)) {
+            replicas.add(lease.getHolder());
+          }
+        });
+    val fairShare = (getShardCount() + replicas.size() - 1) / replicas.size();
+
+    val owned = new TreeMap<Integer, Instant>();
+    // renew the shards held up to the fair share, the others are left to expire so new replicas
+    // get them only after operations started on them here ran out of lease
+    for (int shard = 0; shard < getShardCount() && owned.size() < fairShare; shard++) {
+      val lease = leases.get(shardLeaseName(shard));
+      if (lease != null
+          && lease.isHeldBy(replicaId)
+          && !lease.isFree(now)
+          && write(lease, lease.getName(), replicaId, now)) {
+        owned.put(shard, safeUntil(now));
+      }
+    }
+    // then take over free shards, released or left behind by a replica that went away
+    for (int shard = 0; shard < getShardCount() && owned.size() < fairShare; shard++) {
+      val lease = leases.get(shardLeaseName(shard));
+      if ((lease == null || lease.isFree(now))
+          && write(lease, shardLeaseName(shard), replicaId, now)) {
+        owned.put(shard, safeUntil(now));
+      }
+    }
+
+    if (!owned.keySet().equals(ownedShards.keySet())) {
+      log.info(
+          "Replica {} owns shards {} of {} shared by {} replicas",
+          replicaId,
+          owned.keySet(),
+          getShardCount(),
+          replicas.size());
+    }
+    ownedShards = owned;
+  }
+
+  private synchronized void releaseAll() {
+    ownedShards = Map.of();
+    try {
+      val now = clock.instant();
+      backend.getLeases().values().stream()
+          .filter(lease -> lease.isHeldBy(properties.getReplicaId()))
+          .forEach(lease -> write(lease, lease.getName(), null, now));
+    } catch (RuntimeException e) {
+      log.warn("Failed to release shard leases, they expire on their own: {}", e.getMessage());
+    }
+  }
+
+  private boolean write(ShardLease observed, String name, String holder, Instant now) {
+    return backend.compareAndSet(
+        observed,
+        ShardLease.builder()
+            .name(name)
+            .holder(holder)
+            .renewTime(now)
+            .durationSec(properties.getLeaseDurationSec())
+            .build());
+  }
+
+  // the other replicas only take a shard over once the lease expired, one renewal later than this
+  private Instant safeUntil(Instant renewedAt) {
+    return renewedAt.plusSeconds(
+        properties.getLeaseDurationSec() - properties.getRenewIntervalSec());
+  }
+
+  private int getShardCount() {
+    return properties.getShardCount();
+  }
+
+  private String shardLeaseName(int shard) {
+    return properties.getLeaseGroup() + "-shard-" + shard;
+  }
+
+  private String memberLeaseName(String replicaId) {
+    return properties.getLeaseGroup() + "-replica-" + replicaId;
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.utils;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import reactor.core.publisher.Mono;
+
+/**
+ * Minimal circuit breaker. After failureThreshold consecutive failures it opens and fails calls
+ * fast for openDuration, then lets a single trial call through (half open) which either closes it
+ * again or re-opens it. A failureThreshold of 0 or less disables it.
+ */
+@Slf4j
+public class CircuitBreaker {
+  enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final String name;
+  private final int failureThreshold;
+  private final long openNanos;
+  private final LongSupplier nanoTime;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures = 0;
+  private long openedAt = 0;
+
+  public CircuitBreaker(String name, int failureThreshold, Duration openDuration) {
+    this(name, failureThreshold, openDuration, System::nanoTime);
+  }
+
+  CircuitBreaker(String name, int failureThreshold, Duration openDuration, LongSupplier nanoTime) {
+    this.name = name;
+    this.failureThreshold = failureThreshold;
+    this.openNanos = openDuration.toNanos();
+    this.nanoTime = nanoTime;
+  }
+
+  /** Runs the call unless the breaker is open, recording its outcome, cancellation as a failure. */
+  public <T> Mono<T> protect(Mono<T> call) {
+    if (failureThreshold <= 0) {
+      return call;
+    }
+    return Mono.defer(
+        () -> {
+          if (!tryAcquire()) {
+            return Mono.error(new CircuitBreakerOpenException(name));
+          }
+          // cancelled, e.g. timed out by the caller, counts as failed so a trial call can't leave
+          // the breaker half open for good, unless cancelled once it had already succeeded
+          val recorded = new AtomicBoolean();
+          return call.doOnSuccess(value -> record(recorded, true))
+              .doOnError(error -> record(recorded, false))
+              .doOnCancel(() -> record(recorded, false));
+        });
+  }
+
+  synchronized State getState() {
+    return state;
+  }
+
+  private synchronized boolean tryAcquire() {
+    if (state == State.OPEN && nanoTime.getAsLong() - openedAt >= openNanos) {
+      log.info("Circuit breaker {} half open, letting a trial call through", name);
+      state = State.HALF_OPEN;
+      return true;
+    }
+    return state == State.CLOSED;
+  }
+
+  private void record(AtomicBoolean recorded, boolean succeeded) {
+    if (!recorded.compareAndSet(false, true)) {
+      return;
+    }
+    if (succeeded) {
+      onSuccess();
+    } else {
+      onFailure();
+    }
+  }
+
+  private synchronized void onSuccess() {
+    if (state != State.CLOSED) {
+      log.info("Circuit breaker {} closed", name);
+    }
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+  }
+
+  private synchronized void onFailure() {
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+      if (state != State.OPEN) {
+        log.warn("Circuit breaker {} open after {} failures", name, consecutiveFailures);
+      }
+      state = State.OPEN;
+      openedAt = nanoTime.getAsLong();
+    }
+  }
+
+  public static class CircuitBreakerOpenException extends RuntimeException {
+    public CircuitBreakerOpenException(String name) {
+      super("Circuit breaker " + name + " is open");
+    }
+  }
+}
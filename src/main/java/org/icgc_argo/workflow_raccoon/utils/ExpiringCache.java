@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.utils;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+import lombok.Value;
+import lombok.val;
+
+/**
+ * Small thread safe cache which evicts entries once they are older than the ttl or when it grows
+ * beyond max size (oldest entries first). Entries are kept in insertion order so both eviction
+ * rules only ever need to look at the head of the map.
+ */
+public class ExpiringCache<K, V> {
+  private final long ttlNanos;
+  private final int maxSize;
+  private final LongSupplier nanoTime;
+  private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>();
+
+  public ExpiringCache(Duration ttl, int maxSize) {
+    this(ttl, maxSize, System::nanoTime);
+  }
+
+  /** With a custom time source, for owners tested against a fake clock. */
+  public ExpiringCache(Duration ttl, int maxSize, LongSupplier nanoTime) {
+    this.ttlNanos = ttl.toNanos();
+    this.maxSize = maxSize;
+    this.nanoTime = nanoTime;
+  }
+
+  public synchronized Optional<V> get(K key) {
+    evictExpired();
+    return Optional.ofNullable(entries.get(key)).map(Entry::getValue);
+  }
+
+  public synchronized void put(K key, V value) {
+    if (maxSize <= 0 || ttlNanos <= 0) {
+      return;
+    }
+    // re-insert so the entry moves to the tail and ages from now
+    entries.remove(key);
+    entries.put(key, new Entry<>(value, nanoTime.getAsLong()));
+    evictExpired();
+    while (entries.size() > maxSize) {
+      entries.remove(entries.keySet().iterator().next());
+    }
+  }
+
+  public synchronized Optional<V> remove(K key) {
+    evictExpired();
+    return Optional.ofNullable(entries.remove(key)).map(Entry::getValue);
+  }
+
+  /**
+   * Removes the entry only if it is still mapped to the given instance. Compared by reference, an
+   * equal value put since, e.g. a recomputed meal plan, is kept, and big values aren't walked.
+   */
+  public synchronized boolean remove(K key, V value) {
+    evictExpired();
+    val entry = entries.get(key);
+    if (entry == null || entry.getValue() != value) {
+      return false;
+    }
+    entries.remove(key);
+    return true;
+  }
+
+  public synchronized int size() {
+    evictExpired();
+    return entries.size();
+  }
+
+  private void evictExpired() {
+    val now = nanoTime.getAsLong();
+    val iterator = entries.values().iterator();
+    while (iterator.hasNext() && now - iterator.next().getInsertedAt() >= ttlNanos) {
+      iterator.remove();
+    }
+  }
+
+  @Value
+  private static class Entry<V> {
+    V value;
+    long insertedAt;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+
+/** Appends finished spans to a file, one JSON object per line, to go through with jq & co. */
+@Slf4j
+public class FileSpanExporter implements SpanExporter {
+  private final Writer writer;
+
+  public FileSpanExporter(Path path) throws IOException {
+    this.writer = Files.newBufferedWriter(path, UTF_8, CREATE, APPEND);
+  }
+
+  @Override
+  public synchronized CompletableResultCode export(Collection<SpanData> spans) {
+    try {
+      for (val span : spans) {
+        writer.write(JacksonUtils.toJsonString(toRecord(span)));
+        writer.write('\n');
+      }
+      writer.flush();
+      return CompletableResultCode.ofSuccess();
+    } catch (IOException e) {
+      log.warn("Failed to write {} spans: {}", spans.size(), e.toString());
+      return CompletableResultCode.ofFailure();
+    }
+  }
+
+  @Override
+  public CompletableResultCode flush() {
+    return CompletableResultCode.ofSuccess();
+  }
+
+  @Override
+  public synchronized CompletableResultCode shutdown() {
+    try {
+      writer.close();
+      return CompletableResultCode.ofSuccess();
+    } catch (IOException e) {
+      return CompletableResultCode.ofFailure();
+    }
+  }
+
+  private static Map<String, Object> toRecord(SpanData span) {
+    val attributes = new LinkedHashMap<String, Object>();
+    span.getAttributes().forEach((key, value) -> attributes.put(key.getKey(), value));
+    val record = new LinkedHashMap<String, Object>();
+    record.put("traceId", span.getTraceId());
+    record.put("spanId", span.getSpanId());
+    record.put(
+        "parentSpanId", span.getParentSpanContext().isValid() ? span.getParentSpanId() : null);
+    record.put("name", span.getName());
+    record.put("start", Instant.EPOCH.plusNanos(span.getStartEpochNanos()));
+    record.put(
+        "durationMs",
+        TimeUnit.NANOSECONDS.toMillis(span.getEndEpochNanos() - span.getStartEpochNanos()));
+    record.put("status", span.getStatus().getStatusCode());
+    record.put("attributes", attributes);
+    return record;
+  }
+}
@@ -18,9 +18,13 @@
 
 package org.icgc_argo.workflow_raccoon.utils;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.IOException;
+import java.io.OutputStream;
 import lombok.SneakyThrows;
 import lombok.experimental.UtilityClass;
 
@@ -29,10 +33,21 @@ public class JacksonUtils {
   private static final ObjectMapper OBJECT_MAPPER =
       new ObjectMapper()
           .registerModule(new JavaTimeModule())
-          .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+          .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+          .disable(DeserializationFeature.ADJUST_DATES_TO_CONTEXT_TIME_ZONE);
 
   @SneakyThrows
   public static String toJsonString(Object o) {
     return OBJECT_MAPPER.writeValueAsString(o);
   }
+
+  /** Writes the JSON straight to the stream, leaving it open. */
+  public static void writeJson(OutputStream out, Object o) throws IOException {
+    OBJECT_MAPPER.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(out, o);
+  }
+
+  @SneakyThrows
+  public static <T> T fromJsonString(String json, Class<T> clazz) {
+    return OBJECT_MAPPER.readValue(json, clazz);
+  }
 }
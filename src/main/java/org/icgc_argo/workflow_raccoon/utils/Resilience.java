@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.utils;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import lombok.extern.slf4j.Slf4j;
+import org.icgc_argo.workflow_raccoon.properties.ResilienceProperties;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import reactor.util.retry.RetryBackoffSpec;
+
+/**
+ * Retries transient failures of calls to one backend with jittered exponential backoff, behind a
+ * circuit breaker so a backend that is down gets shed instead of hammered by retries.
+ */
+@Slf4j
+public class Resilience {
+  private static final double JITTER = 0.5;
+
+  private final CircuitBreaker circuitBreaker;
+  private final RetryBackoffSpec retry;
+
+  public Resilience(String name, ResilienceProperties properties) {
+    this.circuitBreaker =
+        new CircuitBreaker(
+            name,
+            properties.getCircuitBreakerFailureThreshold(),
+            Duration.ofMillis(properties.getCircuitBreakerOpenMs()));
+    this.retry =
+        Retry.backoff(
+                Math.max(0, properties.getRetryMaxAttempts() - 1),
+                Duration.ofMillis(properties.getRetryMinBackoffMs()))
+            .maxBackoff(Duration.ofMillis(properties.getRetryMaxBackoffMs()))
+            .jitter(JITTER)
+            .filter(Resilience::isTransient)
+            .doBeforeRetry(
+                signal ->
+                    log.warn(
+                        "Retrying {} call after failure {}: {}",
+                        name,
+                        signal.totalRetries() + 1,
+                        signal.failure().getMessage()))
+            .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+  }
+
+  /** The call must be lazy (e.g. a WebClient exchange) since it is resubscribed on retry. */
+  public <T> Mono<T> apply(Mono<T> call) {
+    return circuitBreaker.protect(call).retryWhen(retry);
+  }
+
+  /** Connection problems, timeouts, 5xx and 429, but not other 4xx or an open breaker. */
+  static boolean isTransient(Throwable error) {
+    if (error instanceof WebClientResponseException) {
+      final int status = ((WebClientResponseException) error).getRawStatusCode();
+      return status >= 500 || status == 429;
+    }
+    return error instanceof WebClientRequestException || error instanceof TimeoutException;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.utils;
+
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+import lombok.experimental.UtilityClass;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+/**
+ * Carries the trace context through the subscriber context of a reactive chain, so spans started on
+ * whatever thread the chain runs on find their parent. Blocking sections get it made current.
+ */
+@UtilityClass
+public class Tracing {
+  private static final Class<Context> KEY = Context.class;
+
+  /** The trace context written by an enclosing span, the thread's current one otherwise. */
+  public static Context current(ContextView view) {
+    return view.getOrDefault(KEY, Context.current());
+  }
+
+  /** Subscriber context making the trace context the parent of the spans started upstream. */
+  public static ContextView propagate(Context context) {
+    return reactor.util.context.Context.of(KEY, context);
+  }
+
+  /** Same as {@link Mono#fromCallable}, with the trace context current while it's called. */
+  public static <T> Mono<T> fromCallable(Callable<T> callable) {
+    return Mono.deferContextual(
+        view ->
+            Mono.fromCallable(
+                () -> {
+                  try (Scope ignored = current(view).makeCurrent()) {
+                    return callable.call();
+                  }
+                }));
+  }
+
+  /** Same as {@link Mono#defer}, with the trace context current while the mono is created. */
+  public static <T> Mono<T> defer(Supplier<Mono<T>> supplier) {
+    return Mono.deferContextual(
+        view -> {
+          try (Scope ignored = current(view).makeCurrent()) {
+            return supplier.get();
+          }
+        });
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.loadtest;
+
+import static java.time.format.DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.ConfigMapListBuilder;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.PodListBuilder;
+import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import io.fabric8.mockwebserver.Context;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import lombok.val;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * One simulated cluster served by the fabric8 kubernetes mock server. Pods are generated once and
+ * the list responses are pre-serialized so the stand-in itself doesn't dominate pass duration.
+ */
+class FakeKubernetesApi extends StubDispatcher {
+  static final int TASKS_PER_RUN = 9;
+  private static final String[] PHASES = {"Running", "Running", "Running", "Succeeded", "Failed"};
+
+  @Getter private final String namespace;
+  @Getter private final KubernetesMockServer server;
+  @Getter private final AtomicLong deleteCount = new AtomicLong();
+  @Getter private final AtomicLong logCount = new AtomicLong();
+  private final String podList;
+  private final String configMapList;
+  private final String podLog;
+
+  FakeKubernetesApi(int cluster, LoadProfile profile) {
+    super(profile.getKubernetesLatencyMs(), profile.getKubernetesErrorRate());
+    this.namespace = "runs-" + cluster;
+    val now = OffsetDateTime.now(ZoneOffset.UTC);
+    val pods = new PodListBuilder();
+    val configMaps = new ConfigMapListBuilder();
+    for (int i = 0; i < profile.getPodsPerCluster(); i++) {
+      val isParent = i % (TASKS_PER_RUN + 1) == 0;
+      val run = i / (TASKS_PER_RUN + 1);
+      // ages spread over the last 60 days, phases vary between runs and between their tasks
+      val started = now.minusHours((i * 7L) % (24 * 60)).format(ISO_OFFSET_DATE_TIME);
+      val phase = PHASES[(isParent ? run : i) % PHASES.length];
+      pods.addToItems(
+          new PodBuilder()
+              .withNewMetadata()
+              .withName(isParent ? runId(cluster, run) : taskName(cluster, i))
+              .withNamespace(namespace)
+              .withLabels(isParent ? Map.of() : Map.of("runName", runId(cluster, run)))
+              .endMetadata()
+              .withNewStatus()
+              .withPhase(phase)
+              .withStartTime(started)
+              .endStatus()
+              .build());
+      if (isParent) {
+        configMaps.addToItems(
+            new ConfigMapBuilder()
+                .withNewMetadata()
+                .withName("nf-config-" + cluster + "-" + i)
+                .withNamespace(namespace)
+                .withCreationTimestamp(started)
+                .withLabels(Map.of("runName", runId(cluster, run)))
+                .endMetadata()
+                .build());
+      }
+    }
+    this.podList = Serialization.asJson(pods.build());
+    this.configMapList = Serialization.asJson(configMaps.build());
+    this.podLog = "N E X T F L O W  ~  version 21.04.1\n".repeat(profile.getPodLogLines());
+    this.server =
+        new KubernetesMockServer(new Context(), newServer(), new HashMap<>(), this, false);
+    this.server.init();
+  }
+
+  static String runId(int cluster, int run) {
+    return String.format("wes-%d%07d", cluster, run);
+  }
+
+  static String taskName(int cluster, int pod) {
+    return String.format("nf-%d%07d", cluster, pod);
+  }
+
+  String getMasterUrl() {
+    return server.url("/");
+  }
+
+  @Override
+  MockResponse handle(RecordedRequest request) {
+    val path = request.getRequestUrl().encodedPath();
+    val base = "/api/v1/namespaces/" + namespace;
+    if ("GET".equals(request.getMethod())) {
+      if (path.equals(base + "/pods")) {
+        return json(podList);
+      } else if (path.equals(base + "/configmaps")) {
+        return json(configMapList);
+      } else if (path.startsWith(base + "/pods/") && path.endsWith("/log")) {
+        logCount.incrementAndGet();
+        return new MockResponse().setHeader("Content-Type", "text/plain").setBody(podLog);
+      }
+    } else if ("DELETE".equals(request.getMethod())
+        && (path.startsWith(base + "/pods/") || path.startsWith(base + "/configmaps/"))) {
+      deleteCount.incrementAndGet();
+      return json("{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"status\":\"Success\"}");
+    }
+    return new MockResponse().setResponseCode(404);
+  }
+
+  void stop() {
+    server.destroy();
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import lombok.val;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/** Stand-in for the rdpc graphql gateway and the oauth token endpoint in front of it. */
+class FakeRdpcGateway extends StubDispatcher {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Getter private final MockWebServer server = newServer();
+  @Getter private final AtomicLong tokenCount = new AtomicLong();
+  @Getter private final AtomicLong pageCount = new AtomicLong();
+  private final List<Map<String, Object>> runningRuns = new ArrayList<>();
+  private final Map<String, Map<String, Object>> runningRunsById = new HashMap<>();
+
+  @SneakyThrows
+  FakeRdpcGateway(LoadProfile profile) {
+    super(profile.getRdpcLatencyMs(), profile.getRdpcErrorRate());
+    val startTime = System.currentTimeMillis() - 3_600_000L;
+    for (int i = 0; i < profile.getActiveRuns(); i++) {
+      // spread over the clusters, runs beyond the pods each cluster has are missing their pod
+      val runId = FakeKubernetesApi.runId(i % profile.getClusters(), i / profile.getClusters());
+      runningRuns.add(
+          Map.of(
+              "runId",
+              runId,
+              "sessionId",
+              "session-" + i,
+              "repository",
+              "https://github.com/icgc-argo/nextflow-dna-seq-alignment.git",
+              "state",
+              "RUNNING",
+              "startTime",
+              startTime));
+      runningRunsById.put(runId, runningRuns.get(i));
+    }
+    server.setDispatcher(this);
+    server.start();
+  }
+
+  String getGraphqlUrl() {
+    return server.url("/graphql").toString();
+  }
+
+  String getTokenUrl() {
+    return server.url("/oauth/token").toString();
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  MockResponse handle(RecordedRequest request) throws Exception {
+    val path = request.getRequestUrl().encodedPath();
+    if (path.equals("/oauth/token")) {
+      tokenCount.incrementAndGet();
+      return json("{\"access_token\":\"load-test\",\"token_type\":\"Bearer\",\"expires_in\":3600}");
+    } else if (path.equals("/graphql")) {
+      pageCount.incrementAndGet();
+      val body = MAPPER.readValue(request.getBody().readUtf8(), Map.class);
+      val variables = (Map<String, Object>) body.get("variables");
+      if (!variables.containsKey("state")) {
+        // batched lookup by run id, one alias per run
+        val data = new HashMap<String, Object>();
+        variables.forEach(
+            (alias, runId) -> {
+              val run = runningRunsById.get(runId);
+              data.put(alias, Map.of("content", run == null ? List.of() : List.of(run)));
+            });
+        return json(MAPPER.writeValueAsString(Map.of("data", data)));
+      }
+      val runs =
+          "RUNNING".equals(variables.get("state")) ? runningRuns : List.<Map<String, Object>>of();
+      val from = Math.min((Integer) variables.get("from"), runs.size());
+      val to = Math.min(from + (Integer) variables.get("size"), runs.size());
+      val page =
+          Map.of(
+              "info", Map.of("hasNextFrom", to < runs.size(), "totalHits", runs.size()),
+              "content", runs.subList(from, to));
+      return json(MAPPER.writeValueAsString(Map.of("data", Map.of("runs", page))));
+    }
+    return new MockResponse().setResponseCode(404);
+  }
+
+  @SneakyThrows
+  void stop() {
+    server.shutdown();
+  }
+}
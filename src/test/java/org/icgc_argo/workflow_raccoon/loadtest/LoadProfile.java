@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.loadtest;
+
+import lombok.Value;
+
+/**
+ * Shape of the simulated environment, overridable with system properties so the same harness can
+ * run a quick smoke load or a production sized one, e.g. -Draccoon.load.podsPerCluster=25000.
+ */
+@Value
+class LoadProfile {
+  int clusters = intProperty("clusters", 2);
+  int podsPerCluster = intProperty("podsPerCluster", 2500);
+  int activeRuns = intProperty("activeRuns", 500);
+  int podLogLines = intProperty("podLogLines", 20);
+  int rotationDays = intProperty("rotationDays", 30);
+  long kubernetesLatencyMs = intProperty("kubernetesLatencyMs", 0);
+  long rdpcLatencyMs = intProperty("rdpcLatencyMs", 0);
+  long weblogLatencyMs = intProperty("weblogLatencyMs", 0);
+  double kubernetesErrorRate = doubleProperty("kubernetesErrorRate", 0);
+  double rdpcErrorRate = doubleProperty("rdpcErrorRate", 0);
+  double weblogErrorRate = doubleProperty("weblogErrorRate", 0);
+  String reconcileStrategy = System.getProperty("raccoon.load.reconcileStrategy", "ACTIVE_RUNS");
+
+  private static int intProperty(String name, int defaultValue) {
+    return Integer.parseInt(
+        System.getProperty("raccoon.load." + name, String.valueOf(defaultValue)));
+  }
+
+  private static double doubleProperty(String name, double defaultValue) {
+    return Double.parseDouble(
+        System.getProperty("raccoon.load." + name, String.valueOf(defaultValue)));
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.loadtest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.MealPlan;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+/**
+ * Drives /dry-run and /run against simulated clusters, rdpc and weblog and reports how long the
+ * pass took, how many requests each backend received and the peak heap. Excluded from the default
+ * build, run it with: ./mvnw -P load-test test -Draccoon.load.podsPerCluster=25000
+ * -Draccoon.load.activeRuns=5000 (see LoadProfile for the other knobs).
+ */
+@Slf4j
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class RaccoonLoadTest {
+  private static final Duration PASS_TIMEOUT = Duration.ofMinutes(30);
+
+  private static final LoadProfile PROFILE = new LoadProfile();
+  private static final List<FakeKubernetesApi> CLUSTERS = new ArrayList<>();
+  private static FakeRdpcGateway rdpc;
+  private static FakeWeblog weblog;
+
+  @Autowired private WebTestClient webTestClient;
+  @Autowired private MeterRegistry meterRegistry;
+
+  @DynamicPropertySource
+  static void backends(DynamicPropertyRegistry registry) {
+    IntStream.range(0, PROFILE.getClusters())
+        .forEach(cluster -> CLUSTERS.add(new FakeKubernetesApi(cluster, PROFILE)));
+    rdpc = new FakeRdpcGateway(PROFILE);
+    weblog = new FakeWeblog(PROFILE);
+
+    for (int i = 0; i < CLUSTERS.size(); i++) {
+      val cluster = CLUSTERS.get(i);
+      registry.add("k8s.clientList[" + i + "].name", () -> "cluster-" + cluster.getNamespace());
+      registry.add("k8s.clientList[" + i + "].runsNamespace", cluster::getNamespace);
+      registry.add("k8s.clientList[" + i + "].masterUrl", cluster::getMasterUrl);
+      registry.add("k8s.clientList[" + i + "].trustCertificate", () -> true);
+    }
+    registry.add("rdpc.url", rdpc::getGraphqlUrl);
+    registry.add("rdpc.tokenUrl", rdpc::getTokenUrl);
+    registry.add("weblog.url", weblog::getUrl);
+    registry.add("raccoon.podRotationDays", PROFILE::getRotationDays);
+    registry.add("raccoon.configMapRotationDays", PROFILE::getRotationDays);
+    registry.add("raccoon.kubeCleanUpDelaySec", () -> 0);
+    registry.add("raccoon.relayWeblogDelaySec", () -> 0);
+    // a single pass has to relay every transition
+    registry.add("raccoon.runStateDebounceObservations", () -> 1);
+    registry.add("raccoon.runStateDebounceWindowSec", () -> 0);
+  }
+
+  @AfterAll
+  static void shutdown() {
+    CLUSTERS.forEach(FakeKubernetesApi::stop);
+    rdpc.stop();
+    weblog.stop();
+  }
+
+  @Test
+  void dryRunThenRun() {
+    val client =
+        webTestClient
+            .mutate()
+            .responseTimeout(PASS_TIMEOUT)
+            .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(-1))
+            .build();
+
+    resetPeakHeap();
+    var start = System.nanoTime();
+    val mealPlan =
+        client
+            .post()
+            .uri("/dry-run?reconcileStrategy={strategy}", PROFILE.getReconcileStrategy())
+            .exchange()
+            .expectStatus()
+            .isOk()
+            .expectBody(MealPlan.class)
+            .returnResult()
+            .getResponseBody();
+    report("dry-run", start);
+    assertTrue(mealPlan != null && mealPlan.getOperationsCount() > 0);
+
+    resetPeakHeap();
+    start = System.nanoTime();
+    client
+        .post()
+        .uri("/run?reconcileStrategy={strategy}", PROFILE.getReconcileStrategy())
+        .exchange()
+        .expectStatus()
+        .isOk();
+    awaitPass();
+    report("run", start);
+
+    if (PROFILE.getWeblogErrorRate() == 0 && PROFILE.getKubernetesErrorRate() == 0) {
+      assertEquals(mealPlan.getRunUpdates().size(), weblog.getRequestCount().get());
+    }
+  }
+
+  private void awaitPass() {
+    val deadline = System.nanoTime() + PASS_TIMEOUT.toNanos();
+    while (meterRegistry.find("raccoon.pass").timers().stream().mapToLong(t -> t.count()).sum()
+        == 0) {
+      assertTrue(System.nanoTime() < deadline, "pass did not finish in " + PASS_TIMEOUT);
+      sleep();
+    }
+  }
+
+  private void report(String phase, long startNanos) {
+    val seconds = (System.nanoTime() - startNanos) / 1e9;
+    log.info(
+        "[load] {} took {} s, totals so far: k8s requests={} (logs={}, deletes={}, injected errors={}), "
+            + "rdpc requests={} (tokens={}, pages={}), weblog requests={}, peak heap={} MiB",
+        phase,
+        String.format("%.2f", seconds),
+        CLUSTERS.stream().mapToLong(c -> c.getRequestCount().get()).sum(),
+        CLUSTERS.stream().mapToLong(c -> c.getLogCount().get()).sum(),
+        CLUSTERS.stream().mapToLong(c -> c.getDeleteCount().get()).sum(),
+        CLUSTERS.stream().mapToLong(c -> c.getInjectedErrorCount().get()).sum(),
+        rdpc.getRequestCount().get(),
+        rdpc.getTokenCount().get(),
+        rdpc.getPageCount().get(),
+        weblog.getRequestCount().get(),
+        peakHeap() / (1024 * 1024));
+  }
+
+  private static void resetPeakHeap() {
+    System.gc();
+    heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+  }
+
+  private static long peakHeap() {
+    return heapPools().stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+  }
+
+  private static List<MemoryPoolMXBean> heapPools() {
+    val pools = new ArrayList<MemoryPoolMXBean>();
+    ManagementFactory.getMemoryPoolMXBeans().stream()
+        .filter(pool -> pool.getType() == MemoryType.HEAP)
+        .forEach(pools::add);
+    return pools;
+  }
+
+  private static void sleep() {
+    try {
+      Thread.sleep(100);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import lombok.val;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/** Backend stand-in which counts requests and injects latency and server errors. */
+abstract class StubDispatcher extends Dispatcher {
+  static {
+    // MockWebServer logs every request at info, too noisy and too slow for tens of thousands
+    Logger.getLogger(MockWebServer.class.getName()).setLevel(Level.WARNING);
+  }
+
+  private final long latencyMs;
+  private final double errorRate;
+
+  @Getter private final AtomicLong requestCount = new AtomicLong();
+  @Getter private final AtomicLong injectedErrorCount = new AtomicLong();
+
+  StubDispatcher(long latencyMs, double errorRate) {
+    this.latencyMs = latencyMs;
+    this.errorRate = errorRate;
+  }
+
+  @Override
+  @SneakyThrows
+  public MockResponse dispatch(RecordedRequest request) {
+    requestCount.incrementAndGet();
+    if (latencyMs > 0) {
+      Thread.sleep(latencyMs);
+    }
+    if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+      injectedErrorCount.incrementAndGet();
+      return new MockResponse().setResponseCode(503).setBody("injected failure");
+    }
+    return handle(request);
+  }
+
+  abstract MockResponse handle(RecordedRequest request) throws Exception;
+
+  static MockWebServer newServer() {
+    val server = new MockWebServer();
+    server.setServerSocketFactory(new NoDelayServerSocketFactory());
+    return server;
+  }
+
+  static MockResponse json(String body) {
+    return new MockResponse().setHeader("Content-Type", "application/json").setBody(body);
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.model;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.stream.IntStream;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+class MealPlanTest {
+  private static final OffsetDateTime TIME =
+      OffsetDateTime.of(2021, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+
+  @Test
+  void summarizesOnlyTheFirstOperationsWithoutPodLogs() {
+    val mealPlan =
+        MealPlan.builder()
+            .id("plan-1")
+            .reconcileStrategy(ReconcileStrategy.ACTIVE_RUNS)
+            .runUpdates(IntStream.range(0, 5).mapToObj(MealPlanTest::runUpdate).collect(toList()))
+            .staleRunPods(List.of())
+            .staleResources(List.of())
+            .build();
+
+    assertEquals(
+        "MealPlan(id=plan-1, reconcileStrategy=ACTIVE_RUNS, "
+            + "runUpdates=5 [wes-0 RUNNING->EXECUTOR_ERROR, wes-1 RUNNING->EXECUTOR_ERROR, "
+            + "+3 more], "
+            + "staleRunPods=0 [], staleResources=0 [])",
+        mealPlan.summarize(2));
+  }
+
+  private static RunUpdate runUpdate(int i) {
+    return RunUpdate.builder()
+        .runId("wes-" + i)
+        .sessionId("session")
+        .workflowUrl("https://github.com/icgc-argo/nextflow-dna-seq-alignment")
+        .currentState(WesStates.RUNNING)
+        .newState(WesStates.EXECUTOR_ERROR)
+        .startTime(TIME)
+        .completeTime(TIME)
+        .logs(PodLog.of("a very long log"))
+        .build();
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.model;
+
+import static org.icgc_argo.workflow_raccoon.utils.JacksonUtils.fromJsonString;
+import static org.icgc_argo.workflow_raccoon.utils.JacksonUtils.toJsonString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PodLogTest {
+  private static final String LOG = "N E X T F L O W  ~  version 21.04.1\n\"quoted\" ünïcödé 🦝\n";
+
+  @Test
+  void compressesOffHeapAndInflatesOnRead() {
+    val log = LOG.repeat(1000);
+    val podLog = PodLog.of(log);
+
+    assertFalse(podLog.isSpilled());
+    assertEquals(log.getBytes(StandardCharsets.UTF_8).length, podLog.getSize());
+    assertTrue(podLog.getCompressedSize() < podLog.getSize() / 10);
+    assertEquals(log, podLog.asString());
+  }
+
+  @Test
+  void spillsToFilePastThreshold(@TempDir Path spillDirectory) throws Exception {
+    val log = LOG.repeat(1000);
+    val podLog = PodLog.compress(new StringReader(log), 16, spillDirectory);
+
+    assertTrue(podLog.isSpilled());
+    try (val files = Files.list(spillDirectory)) {
+      assertEquals(1, files.count());
+    }
+    assertEquals(log, podLog.asString());
+    assertEquals(PodLog.of(log), podLog);
+  }
+
+  @Test
+  void serializesAsJsonString() {
+    val json = toJsonString(PodLog.of(LOG));
+
+    assertEquals(toJsonString(LOG), json);
+    assertEquals(PodLog.of(LOG), fromJsonString(json, PodLog.class));
+  }
+}
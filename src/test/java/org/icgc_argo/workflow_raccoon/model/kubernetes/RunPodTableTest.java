@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.model.kubernetes;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Set;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+import org.junit.jupiter.api.Test;
+
+class RunPodTableTest {
+
+  @Test
+  void findsEveryRunIdAfterGrowing() {
+    val table = new RunPodTable();
+    for (int i = 0; i < 5000; i++) {
+      table.addRun(
+          i % 2 == 0 ? "cluster-a" : "cluster-b", "wes-" + i, i, WesStates.values()[i % 10]);
+    }
+
+    assertEquals(5000, table.size());
+    for (int i = 0; i < 5000; i++) {
+      val row = table.indexOf("wes-" + i);
+      assertEquals("wes-" + i, table.getRunId(row));
+      assertEquals(i, table.getAgeMillis(row));
+      assertEquals(WesStates.values()[i % 10], table.getState(row));
+      assertEquals(i % 2 == 0 ? "cluster-a" : "cluster-b", table.getCluster(row));
+    }
+    assertEquals(-1, table.indexOf("wes-5000"));
+  }
+
+  @Test
+  void resolvesDuplicateRunsToLatestStart() {
+    val table = new RunPodTable(DuplicateRunResolution.LATEST_START);
+    table.addRun("cluster-a", "wes-1", 10, WesStates.COMPLETE);
+    table.addRun("cluster-b", "wes-1", 20, WesStates.RUNNING);
+    table.addRun("cluster-a", "wes-2", 20, WesStates.RUNNING);
+    table.addRun("cluster-b", "wes-2", 10, WesStates.COMPLETE);
+
+    assertEquals(2, table.getRunCount());
+    assertEquals(2, table.getDuplicateRunCount());
+    assertEquals("cluster-b", table.getCluster(table.indexOf("wes-1")));
+    assertEquals("cluster-a", table.getCluster(table.indexOf("wes-2")));
+  }
+
+  @Test
+  void resolvesDuplicateRunsToMostTerminal() {
+    val table = new RunPodTable(DuplicateRunResolution.MOST_TERMINAL);
+    table.addRun("cluster-a", "wes-1", 10, WesStates.COMPLETE);
+    table.addRun("cluster-b", "wes-1", 20, WesStates.RUNNING);
+    // duplicates must survive the index growing
+    for (int i = 0; i < 2000; i++) {
+      table.addRun("cluster-a", "wes-other-" + i, i, WesStates.RUNNING);
+    }
+
+    assertEquals(1, table.getDuplicateRunCount());
+    val row = table.indexOf("wes-1");
+    assertEquals("cluster-a", table.getCluster(row));
+    assertEquals(WesStates.COMPLETE, table.getState(row));
+    // the other pod is kept for cleanup
+    assertEquals(
+        2,
+        table.staleRunTrees(Long.MAX_VALUE).stream()
+            .filter(p -> p.getRunId().equals("wes-1"))
+            .count());
+  }
+
+  @Test
+  void convertsOnlyStalePodsToRunPods() {
+    val age = OffsetDateTime.of(2021, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+    val table = new RunPodTable();
+    table.addRun("cluster-a", "wes-old", age.toInstant().toEpochMilli(), WesStates.COMPLETE);
+    table.addRun(
+        "cluster-a", "wes-new", age.plusDays(30).toInstant().toEpochMilli(), WesStates.RUNNING);
+
+    val stale = table.staleRunTrees(age.plusDays(1).toInstant().toEpochMilli());
+
+    assertEquals(1, stale.size());
+    assertEquals(
+        RunPod.builder()
+            .runId("wes-old")
+            .cluster("cluster-a")
+            .age(age)
+            .state(WesStates.COMPLETE)
+            .log(PodLog.EMPTY)
+            .build(),
+        stale.get(0));
+  }
+
+  @Test
+  void indexesOnlyRunsAndCleansUpTasksWithTheirRun() {
+    val day = 24 * 60 * 60 * 1000L;
+    val table = new RunPodTable();
+    table.addRun("cluster-a", "wes-old", 0, WesStates.COMPLETE);
+    table.addTask("cluster-a", "nf-old-1", "wes-old", 5 * day, WesStates.COMPLETE);
+    table.addRun("cluster-a", "wes-new", 5 * day, WesStates.RUNNING);
+    table.addTask("cluster-a", "nf-new-1", "wes-new", 0, WesStates.COMPLETE);
+    table.addTask("cluster-a", "nf-orphan-old", null, 0, WesStates.COMPLETE);
+    table.addTask("cluster-a", "nf-orphan-new", "wes-gone", 5 * day, WesStates.COMPLETE);
+
+    assertEquals(2, table.getRunCount());
+    assertEquals(-1, table.indexOf("nf-old-1"));
+    assertEquals(
+        List.of("wes-old", "nf-old-1", "nf-orphan-old"),
+        table.staleRunTrees(day).stream().map(RunPod::getRunId).collect(toList()));
+  }
+
+  @Test
+  void rotatesOldestCompletedRunTreesOverTheClusterQuota() {
+    val table = new RunPodTable();
+    table.addRun("cluster-a", "wes-1", 1, WesStates.COMPLETE);
+    table.addTask("cluster-a", "nf-1-1", "wes-1", 1, WesStates.COMPLETE);
+    table.addRun("cluster-a", "wes-2", 2, WesStates.EXECUTOR_ERROR);
+    table.addRun("cluster-a", "wes-3", 3, WesStates.RUNNING);
+    table.addRun("cluster-a", "wes-4", 4, WesStates.COMPLETE);
+    table.addRun("cluster-b", "wes-5", 0, WesStates.COMPLETE);
+
+    assertEquals(
+        List.of("wes-1", "nf-1-1", "wes-2"),
+        table.staleRunTrees(Long.MIN_VALUE, 1, row -> 0).stream()
+            .map(RunPod::getRunId)
+            .collect(toList()));
+    assertEquals(
+        List.of("wes-1", "nf-1-1"),
+        table.staleRunTrees(Long.MIN_VALUE, 2, row -> 0).stream()
+            .map(RunPod::getRunId)
+            .collect(toList()));
+    assertEquals(List.of(), table.staleRunTrees(Long.MIN_VALUE, -1, row -> 0));
+  }
+
+  @Test
+  void keepsRunTreesOfKeptRuns() {
+    val table = new RunPodTable();
+    table.addRun("cluster-a", "wes-1", 1, WesStates.EXECUTOR_ERROR);
+    table.addTask("cluster-a", "nf-1-1", "wes-1", 1, WesStates.EXECUTOR_ERROR);
+    table.addRun("cluster-a", "wes-2", 2, WesStates.COMPLETE);
+
+    assertEquals(
+        List.of("wes-2"),
+        table.staleRunTrees(Long.MAX_VALUE, -1, row -> 0, Set.of("wes-1")).stream()
+            .map(RunPod::getRunId)
+            .collect(toList()));
+    assertEquals(
+        List.of("wes-2"),
+        table.staleRunTrees(Long.MIN_VALUE, 0, row -> 0, Set.of("wes-1")).stream()
+            .map(RunPod::getRunId)
+            .collect(toList()));
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.properties;
+
+import lombok.experimental.UtilityClass;
+
+/** Properties for tests, which set only what they exercise on top. */
+@UtilityClass
+public class TestProperties {
+
+  /** No rotations, delays, caches, timeouts or debouncing, and every item logged. */
+  public static RaccoonProperties.RaccoonPropertiesBuilder raccoon() {
+    return RaccoonProperties.builder()
+        .podRotationDays(-1)
+        .configMapRotationDays(-1)
+        .kubeCleanUpDelaySec(0)
+        .relayWeblogDelaySec(0)
+        .mealPlanCacheTtlSec(0)
+        .mealPlanCacheMaxSize(0)
+        .journalSyncBatchSize(1)
+        .podLogSpillThresholdBytes(Long.MAX_VALUE)
+        .passDeadlineSec(0)
+        .operationTimeoutSec(0)
+        .runStateDebounceObservations(1)
+        .runStateDebounceWindowSec(0)
+        .runStateDebounceMemorySec(0)
+        .maxCompletedPodsPerCluster(-1)
+        .itemLogSampleRate(1)
+        .passSummaryIntervalSec(0)
+        .mealPlanLogMaxItems(20);
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.properties.KubernetesClientDetails;
+import org.icgc_argo.workflow_raccoon.properties.KubernetesProperties;
+import org.icgc_argo.workflow_raccoon.properties.RdpcProperties;
+import org.icgc_argo.workflow_raccoon.properties.WarmupProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+class BackendWarmupTest {
+  private final KubernetesService kubernetesService = mock(KubernetesService.class);
+  private final RdpcGatewayService rdpcGatewayService = mock(RdpcGatewayService.class);
+  private final RelayWeblogService relayWeblogService = mock(RelayWeblogService.class);
+  private BackendWarmup warmup;
+
+  @AfterEach
+  void tearDown() {
+    warmup.stop();
+  }
+
+  @Test
+  void reportsReadyOnlyOnceEveryBackendWasWarmedUp() throws InterruptedException {
+    val weblog = Sinks.<Void>empty();
+    when(rdpcGatewayService.refreshToken())
+        .thenReturn(Mono.just(Instant.now().plus(Duration.ofHours(1))));
+    when(rdpcGatewayService.warmUp()).thenReturn(Mono.empty());
+    when(relayWeblogService.warmUp(anyInt())).thenReturn(weblog.asMono());
+    doThrow(new IllegalStateException("unreachable")).when(kubernetesService).warmUp("cluster-b");
+    warmup = createWarmup(true);
+
+    warmup.warmUp();
+
+    assertEquals(Status.OUT_OF_SERVICE, warmup.health().getStatus());
+    weblog.tryEmitEmpty();
+    val health = awaitWarm();
+    assertEquals(Status.UP, health.getStatus());
+    assertTrue(health.getDetails().containsKey("kubernetes.cluster-b"));
+    assertFalse(health.getDetails().containsKey("kubernetes.cluster-a"));
+    verify(kubernetesService).warmUp("cluster-a");
+    verify(relayWeblogService).warmUp(10);
+  }
+
+  @Test
+  void keepsRefreshingTheTokenWhenTheFirstFetchFails() {
+    val scheduler = VirtualTimeScheduler.getOrSet();
+    try {
+      when(rdpcGatewayService.refreshToken())
+          .thenReturn(Mono.error(new IllegalStateException("token endpoint down")))
+          .thenReturn(Mono.just(Instant.now().plus(Duration.ofHours(1))));
+      when(rdpcGatewayService.warmUp()).thenReturn(Mono.empty());
+      when(relayWeblogService.warmUp(anyInt())).thenReturn(Mono.empty());
+      warmup = createWarmup(true);
+
+      warmup.warmUp();
+
+      assertTrue(warmup.health().getDetails().containsKey("rdpc"));
+      scheduler.advanceTimeBy(Duration.ofSeconds(10));
+      verify(rdpcGatewayService, times(2)).refreshToken();
+    } finally {
+      VirtualTimeScheduler.reset();
+    }
+  }
+
+  @Test
+  void isReadyRightAwayWhenDisabled() {
+    warmup = createWarmup(false);
+
+    warmup.warmUp();
+
+    assertEquals(Status.UP, warmup.health().getStatus());
+  }
+
+  // the clusters are warmed up on another thread
+  private Health awaitWarm() throws InterruptedException {
+    val deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+    while (warmup.health().getStatus() != Status.UP && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    return warmup.health();
+  }
+
+  private BackendWarmup createWarmup(boolean enabled) {
+    return new BackendWarmup(
+        new WarmupProperties(enabled, 60, 10),
+        new KubernetesProperties(List.of(cluster("cluster-a"), cluster("cluster-b"))),
+        new RdpcProperties("http://rdpc", "id", "secret", "http://token", 60, null),
+        kubernetesService,
+        rdpcGatewayService,
+        relayWeblogService);
+  }
+
+  private static KubernetesClientDetails cluster(String name) {
+    val clientDetails = new KubernetesClientDetails();
+    clientDetails.setName(name);
+    return clientDetails;
+  }
+}
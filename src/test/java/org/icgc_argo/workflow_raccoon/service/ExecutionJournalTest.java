@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.MealPlan;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
+import org.icgc_argo.workflow_raccoon.model.RunUpdate;
+import org.icgc_argo.workflow_raccoon.model.RunUpdatesRequest;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPod;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunResource;
+import org.icgc_argo.workflow_raccoon.properties.RaccoonProperties;
+import org.icgc_argo.workflow_raccoon.properties.TestProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ExecutionJournalTest {
+  private static final OffsetDateTime TIME =
+      OffsetDateTime.of(2021, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+  @TempDir Path tempDir;
+
+  @Test
+  void recoversOnlyOutstandingOperations() throws Exception {
+    val properties = journalProperties();
+    val journal = new ExecutionJournal(properties);
+    val mealPlan = mealPlan();
+
+    journal.begin(mealPlan);
+    journal.completed(mealPlan.getRunUpdates().get(0));
+    journal.completed(mealPlan.getStaleResources().get(0));
+    journal.close(); // simulate being stopped mid execution
+
+    val recovered = new ExecutionJournal(properties).recoverInterruptedMealPlan().orElseThrow();
+    assertEquals(mealPlan.getId(), recovered.getId());
+    assertEquals(List.of(mealPlan.getRunUpdates().get(1)), recovered.getRunUpdates());
+    assertEquals(mealPlan.getStaleRunPods(), recovered.getStaleRunPods());
+    assertEquals(List.of(), recovered.getStaleResources());
+  }
+
+  @Test
+  void finishedMealPlanIsNotRecovered() {
+    val properties = journalProperties();
+    val journal = new ExecutionJournal(properties);
+
+    journal.begin(mealPlan());
+    journal.end();
+
+    assertTrue(new ExecutionJournal(properties).recoverInterruptedMealPlan().isEmpty());
+  }
+
+  private RaccoonProperties journalProperties() {
+    return TestProperties.raccoon().journalPath(tempDir.resolve("journal.log").toString()).build();
+  }
+
+  private static MealPlan mealPlan() {
+    return MealPlan.builder()
+        .id("plan-1")
+        .request(new RunUpdatesRequest())
+        .runUpdates(List.of(runUpdate("wes-1"), runUpdate("wes-2")))
+        .staleRunPods(
+            List.of(
+                RunPod.builder()
+                    .runId("wes-3")
+                    .age(TIME)
+                    .state(WesStates.COMPLETE)
+                    .log(PodLog.EMPTY)
+                    .build()))
+        .staleResources(
+            List.of(RunResource.builder().kind("configmap").name("nf-config-1").age(TIME).build()))
+        .build();
+  }
+
+  private static RunUpdate runUpdate(String runId) {
+    return RunUpdate.builder()
+        .runId(runId)
+        .sessionId("session")
+        .workflowUrl("https://github.com/icgc-argo/nextflow-dna-seq-alignment")
+        .currentState(WesStates.RUNNING)
+        .newState(WesStates.EXECUTOR_ERROR)
+        .startTime(TIME)
+        .completeTime(TIME)
+        .logs(PodLog.of("line 1\nline 2"))
+        .build();
+  }
+}
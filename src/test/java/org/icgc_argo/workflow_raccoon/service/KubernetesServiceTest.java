@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.SecretBuilder;
+import io.fabric8.kubernetes.api.model.batch.v1.JobBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesCrudDispatcher;
+import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
+import io.fabric8.mockwebserver.Context;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import lombok.val;
+import okhttp3.mockwebserver.MockWebServer;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunResource;
+import org.icgc_argo.workflow_raccoon.properties.KubernetesClientDetails;
+import org.icgc_argo.workflow_raccoon.properties.KubernetesProperties;
+import org.icgc_argo.workflow_raccoon.properties.ReaperKind;
+import org.icgc_argo.workflow_raccoon.properties.ReaperProperties;
+import org.icgc_argo.workflow_raccoon.properties.TestProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class KubernetesServiceTest {
+  private static final String NAMESPACE = "runs";
+  private static final String CREATED = "2021-06-01T10:00:00Z";
+
+  private KubernetesMockServer server;
+  private KubernetesClient client;
+  private KubernetesService kubernetesService;
+
+  @BeforeEach
+  void setUp() {
+    server =
+        new KubernetesMockServer(
+            new Context(),
+            new MockWebServer(),
+            new HashMap<>(),
+            new KubernetesCrudDispatcher(List.of()),
+            false);
+    server.init();
+    client = server.createClient();
+    val clientDetails = new KubernetesClientDetails();
+    clientDetails.setName("cluster-a");
+    clientDetails.setRunsNamespace(NAMESPACE);
+    clientDetails.setMasterUrl(server.url("/"));
+    clientDetails.setTrustCertificate(true);
+    kubernetesService =
+        new KubernetesService(
+            new KubernetesProperties(List.of(clientDetails)),
+            new ReaperProperties(
+                List.of(
+                    kind("configmap", "", "configmaps", "nf-config-", null, 0),
+                    kind("job", "batch", "jobs", "", "runName", 0),
+                    kind("secret", "", "secrets", "", null, -1))),
+            TestProperties.raccoon().build(),
+            new RaccoonMetrics(new SimpleMeterRegistry(), OpenTelemetry.noop().getTracer("test")));
+  }
+
+  @AfterEach
+  void tearDown() {
+    kubernetesService.closeKubernetesClients();
+    server.destroy();
+  }
+
+  @Test
+  void listsAndDeletesEveryReapedKindTheSameWay() {
+    configMap("nf-config-1", "wes-1");
+    configMap("other-config", "wes-1");
+    job("nf-done", true);
+    job("nf-running", false);
+    client
+        .secrets()
+        .inNamespace(NAMESPACE)
+        .createOrReplace(
+            new SecretBuilder()
+                .withNewMetadata()
+                .withName("nf-secret")
+                .withCreationTimestamp(CREATED)
+                .endMetadata()
+                .build());
+
+    val resources = kubernetesService.getAllCurrentRunResources();
+
+    // by prefix, by label and only once completed, and not at all when disabled
+    assertEquals(
+        Set.of("configmap/nf-config-1", "job/nf-done"),
+        resources.stream().map(r -> r.getKind() + "/" + r.getName()).collect(toSet()));
+    val configMap =
+        resources.stream().filter(r -> r.getKind().equals("configmap")).findFirst().get();
+    assertEquals("wes-1", configMap.getRunId());
+    assertEquals("cluster-a", configMap.getCluster());
+
+    assertTrue(kubernetesService.deleteRunResource(configMap));
+    assertTrue(
+        kubernetesService.deleteRunResource(
+            RunResource.builder().kind("job").name("nf-done").age(configMap.getAge()).build()));
+    assertEquals(
+        Set.of("other-config"),
+        client.configMaps().inNamespace(NAMESPACE).list().getItems().stream()
+            .map(c -> c.getMetadata().getName())
+            .collect(toSet()));
+    assertEquals(1, client.batch().v1().jobs().inNamespace(NAMESPACE).list().getItems().size());
+  }
+
+  @Test
+  void doesNotOpenClientsOnceClosed() {
+    kubernetesService.closeKubernetesClients();
+
+    assertThrows(
+        IllegalStateException.class, () -> kubernetesService.getPodLog("wes-1", "cluster-a"));
+  }
+
+  @Test
+  void stoppingWatchesLeavesClientsOpen() throws Exception {
+    kubernetesService.watchTerminatedRunPods((cluster, pod) -> {}).dispose();
+    client.pods().inNamespace(NAMESPACE).createOrReplace(runPod("Running"));
+
+    val pods = kubernetesService.getAllCurrentRunPodTable();
+    assertEquals(1, pods.size());
+    assertEquals(0, pods.indexOf("wes-1"));
+
+    // watching again, e.g. once the relay restarts, goes through the same client
+    val terminated = new CompletableFuture<String>();
+    val watches =
+        kubernetesService.watchTerminatedRunPods(
+            (cluster, pod) -> terminated.complete(cluster + "/" + pod.getMetadata().getName()));
+    try {
+      client.pods().inNamespace(NAMESPACE).createOrReplace(runPod("Succeeded"));
+      assertEquals("cluster-a/wes-1", terminated.get(10, TimeUnit.SECONDS));
+    } finally {
+      watches.dispose();
+    }
+  }
+
+  private static Pod runPod(String phase) {
+    return new PodBuilder()
+        .withNewMetadata()
+        .withName("wes-1")
+        .endMetadata()
+        .withNewStatus()
+        .withPhase(phase)
+        .withStartTime(CREATED)
+        .endStatus()
+        .build();
+  }
+
+  private void configMap(String name, String runName) {
+    client
+        .configMaps()
+        .inNamespace(NAMESPACE)
+        .createOrReplace(
+            new ConfigMapBuilder()
+                .withNewMetadata()
+                .withName(name)
+                .withCreationTimestamp(CREATED)
+                .withLabels(Map.of("runName", runName))
+                .endMetadata()
+                .build());
+  }
+
+  private void job(String name, boolean completed) {
+    val job =
+        new JobBuilder()
+            .withNewMetadata()
+            .withName(name)
+            .withCreationTimestamp(CREATED)
+            .withLabels(Map.of("runName", "wes-1"))
+            .endMetadata()
+            .withNewStatus();
+    if (completed) {
+      job.withCompletionTime(CREATED);
+    }
+    client.batch().v1().jobs().inNamespace(NAMESPACE).createOrReplace(job.endStatus().build());
+  }
+
+  private static ReaperKind kind(
+      String name,
+      String group,
+      String plural,
+      String namePrefix,
+      String labelSelector,
+      int rotationDays) {
+    val kind = new ReaperKind();
+    kind.setName(name);
+    kind.setGroup(group);
+    kind.setPlural(plural);
+    kind.setNamePrefix(namePrefix);
+    kind.setLabelSelector(labelSelector);
+    kind.setRotationDays(rotationDays);
+    kind.setAgeField(name.equals("job") ? "status.completionTime" : "metadata.creationTimestamp");
+    return kind;
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static java.util.stream.Collectors.toMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import java.util.function.Function;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+import org.icgc_argo.workflow_raccoon.utils.Tracing;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+class RaccoonMetricsTest {
+  private final InMemorySpanExporter exporter = InMemorySpanExporter.create();
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final RaccoonMetrics metrics =
+      new RaccoonMetrics(
+          registry,
+          SdkTracerProvider.builder()
+              .addSpanProcessor(SimpleSpanProcessor.create(exporter))
+              .build()
+              .get("test"));
+
+  @Test
+  void tracesStagesUnderTheirPassAcrossThreads() {
+    val pass =
+        metrics.timePass(
+            "pass-1",
+            metrics
+                .timeRdpcPage(
+                    WesStates.RUNNING,
+                    Tracing.fromCallable(
+                            () -> metrics.timeClusterList("cluster-a", "pod", () -> true))
+                        .subscribeOn(Schedulers.boundedElastic()))
+                .flatMap(
+                    listed ->
+                        metrics.timeWeblogRelay(
+                            WesStates.COMPLETE,
+                            Tracing.fromCallable(
+                                    () -> metrics.recordDeletion("cluster-a", "pod", () -> listed))
+                                .subscribeOn(Schedulers.boundedElastic()))));
+
+    assertEquals(true, pass.block());
+
+    val spans =
+        exporter.getFinishedSpanItems().stream()
+            .collect(toMap(SpanData::getName, Function.identity()));
+    assertEquals(5, spans.size());
+    val root = spans.get("raccoon.pass");
+    assertFalse(root.getParentSpanContext().isValid());
+    assertEquals("pass-1", root.getAttributes().get(AttributeKey.stringKey("pass")));
+    assertEquals(root.getSpanId(), spans.get("raccoon.rdpc.page").getParentSpanId());
+    assertEquals(root.getSpanId(), spans.get("raccoon.weblog.relay").getParentSpanId());
+    assertEquals(
+        spans.get("raccoon.rdpc.page").getSpanId(),
+        spans.get("raccoon.k8s.list").getParentSpanId());
+    assertEquals(
+        spans.get("raccoon.weblog.relay").getSpanId(),
+        spans.get("raccoon.k8s.delete").getParentSpanId());
+    spans.values().forEach(span -> assertEquals(root.getTraceId(), span.getTraceId()));
+  }
+
+  @Test
+  void tagsMetersByClusterKindStateAndOutcome() {
+    metrics.timeClusterList("cluster-a", "pod", () -> true);
+    metrics.timeClusterList("cluster-a", "configmap", () -> true);
+    metrics.timeClusterList("cluster-b", "pod", () -> true);
+    metrics.recordDeletion("cluster-a", "pod", () -> true);
+    metrics.recordDeletion("cluster-a", "pod", () -> false);
+    metrics.timeWeblogRelay(WesStates.COMPLETE, Mono.just(true)).block();
+    metrics.timeWeblogRelay(WesStates.EXECUTOR_ERROR, Mono.just(false)).block();
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            metrics
+                .timeWeblogRelay(WesStates.EXECUTOR_ERROR, Mono.error(new IllegalStateException()))
+                .block());
+    metrics.recordWeblogRelaySkipped(WesStates.COMPLETE);
+    metrics.timePass("pass-1", Mono.just(true)).block();
+
+    assertEquals(3, registry.get("raccoon.k8s.list").timers().size());
+    assertEquals(1, timerCount("raccoon.k8s.list", "cluster", "cluster-a", "kind", "configmap"));
+    assertEquals(1, timerCount("raccoon.k8s.list", "cluster", "cluster-b", "kind", "pod"));
+    assertEquals(
+        1,
+        registry
+            .get("raccoon.k8s.deletions")
+            .tags("cluster", "cluster-a", "kind", "pod", "outcome", "deleted")
+            .counter()
+            .count());
+    assertEquals(
+        1,
+        registry
+            .get("raccoon.k8s.deletions")
+            .tags("cluster", "cluster-a", "kind", "pod", "outcome", "failed")
+            .counter()
+            .count());
+    assertEquals(1, timerCount("raccoon.weblog.relay", "state", "COMPLETE", "outcome", "success"));
+    assertEquals(1, registry.get("raccoon.weblog.relay").tag("state", "COMPLETE").timers().size());
+    assertEquals(
+        1, registry.get("raccoon.weblog.relay.skipped").tag("state", "COMPLETE").counter().count());
+    assertEquals(
+        2, timerCount("raccoon.weblog.relay", "state", "EXECUTOR_ERROR", "outcome", "failure"));
+    assertEquals(1, timerCount("raccoon.pass", "outcome", "completed"));
+  }
+
+  private long timerCount(String name, String... tags) {
+    return registry.get(name).tags(tags).timer().count();
+  }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.PassProgress;
+import org.icgc_argo.workflow_raccoon.model.PassTrigger;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
+import org.icgc_argo.workflow_raccoon.model.ReconcileStrategy;
+import org.icgc_argo.workflow_raccoon.model.RunUpdatesRequest;
+import org.icgc_argo.workflow_raccoon.model.TriggeredPass;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+import org.icgc_argo.workflow_raccoon.model.kubernetes.RunPodTable;
+import org.icgc_argo.workflow_raccoon.model.rdpc.Run;
+import org.icgc_argo.workflow_raccoon.properties.PriorityProperties;
+import org.icgc_argo.workflow_raccoon.properties.RaccoonProperties;
+import org.icgc_argo.workflow_raccoon.properties.ReaperProperties;
+import org.icgc_argo.workflow_raccoon.properties.TestProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class RaccoonServiceTest {
+  private KubernetesService kubernetesService;
+  private RdpcGatewayService rdpcGatewayService;
+  private RelayWeblogService relayWeblogService;
+  private ShardCoordinator shardCoordinator;
+  private RaccoonService raccoonService;
+
+  @BeforeEach
+  void setUp() {
+    kubernetesService = mock(KubernetesService.class);
+    rdpcGatewayService = mock(RdpcGatewayService.class);
+    relayWeblogService = mock(RelayWeblogService.class);
+    shardCoordinator = mock(ShardCoordinator.class);
+    when(shardCoordinator.owns(any())).thenReturn(true);
+    when(kubernetesService.getAllCurrentRunPodTable()).thenReturn(new RunPodTable());
+    when(kubernetesService.getAllCurrentRunResources()).thenReturn(List.of());
+    raccoonService = createRaccoonService(TestProperties.raccoon().build());
+  }
+
+  private RaccoonService createRaccoonService(RaccoonProperties properties) {
+    return createRaccoonService(properties, RunStateDebouncer.immediate());
+  }
+
+  private RaccoonService createRaccoonService(
+      RaccoonProperties properties, RunStateDebouncer runStateDebouncer) {
+    return new RaccoonService(
+        properties,
+        new ReaperProperties(List.of()),
+        kubernetesService,
+        rdpcGatewayService,
+        relayWeblogService,
+        new MealPlanCache(properties),
+        new ExecutionJournal(properties),
+        shardCoordinator,
+        runStateDebouncer,
+        new OperationPrioritizer(new PriorityProperties(10.0, 1.0, 5.0, 2.0, 0.5, 10.0)),
+        new RaccoonMetrics(new SimpleMeterRegistry(), OpenTelemetry.noop().getTracer("test")));
+  }
+
+  @Test
+  void concurrentDryRunsShareOneComputation() {
+    val activeRuns = Sinks.many().unicast().<Run>onBackpressureBuffer();
+    when(rdpcGatewayService.getAlLActiveRuns(any())).thenReturn(activeRuns.asFlux());
+
+    val first = raccoonService.prepareMealPlan(new RunUpdatesRequest()).toFuture();
+    val second = raccoonService.prepareMealPlan(new RunUpdatesRequest()).toFuture();
+    activeRuns.tryEmitComplete();
+
+    assertEquals(first.join(), second.join());
+    verify(kubernetesService, times(1)).getAllCurrentRunPodTable();
+    verify(rdpcGatewayService, times(1)).getAlLActiveRuns(any());
+  }
+
+  @Test
+  void overlappingRunsQueueSingleFollowUp() {
+    when(rdpcGatewayService.getAlLActiveRuns(any())).thenReturn(Flux.never());
+
+    val started = raccoonService.triggerMealPlanExecution(new RunUpdatesRequest());
+    val queued = raccoonService.triggerMealPlanExecution(new RunUpdatesRequest());
+    val joined = raccoonService.triggerMealPlanExecution(new RunUpdatesRequest());
+
+    assertEquals(PassTrigger.STARTED, started.getTrigger());
+    assertEquals(PassTrigger.QUEUED, queued.getTrigger());
+    assertEquals(PassTrigger.JOINED, joined.getTrigger());
+    assertNotEquals(started.getPassId(), queued.getPassId());
+    assertEquals(queued.getPassId(), joined.getPassId());
+  }
+
+  @Test
+  void cancellingExecutingPassStartsQueuedOne() {
+    when(rdpcGatewayService.getAlLActiveRuns(any())).thenReturn(Flux.never());
+    val started = raccoonService.triggerMealPlanExecution(new RunUpdatesRequest());
+    val queued = raccoonService.triggerMealPlanExecution(new RunUpdatesRequest());
+
+    assertTrue(raccoonService.cancelPass(started.getPassId()));
+
+    assertEquals(
+        PassProgress.State.CANCELLED,
+        raccoonService.getPassProgress(started.getPassId()).get().getState());
+    assertEquals(
+        List.of(queued.getPassId()),
+        raccoonService.getActivePasses().stream().map(PassProgress::getPassId).collect(toList()));
+    assertEquals(
+        PassProgress.State.EXECUTING,
+        raccoonService.getPassProgress(queued.getPassId()).get().getState());
+    assertFalse(raccoonService.cancelPass(started.getPassId()));
+  }
+
+  @Test
+  void finishedDryRunIsRecomputed() {
+    when(rdpcGatewayService.getAlLActiveRuns(any())).thenReturn(Flux.empty());
+
+    Mono.when(raccoonService.prepareMealPlan(new RunUpdatesRequest())).block();
+    Mono.when(raccoonService.prepareMealPlan(new RunUpdatesRequest())).block();
+
+    verify(kubernetesService, times(2)).getAllCurrentRunPodTable();
+  }
+
+  @Test
+  void dryRunReusesCachedMealPlanUntilExecuted() {
+    raccoonService =
+        createRaccoonService(
+            TestProperties.raccoon().mealPlanCacheTtlSec(60).mealPlanCacheMaxSize(4).build());
+    when(rdpcGatewayService.getAlLActiveRuns(any())).thenReturn(Flux.empty());
+
+    val first = raccoonService.prepareMealPlan(new RunUpdatesRequest()).block();
+    val second = raccoonService.prepareMealPlan(new RunUpdatesRequest()).block();
+    assertSame(first, second);
+    verify(kubernetesService, times(1)).getAllCurrentRunPodTable();
+
+    assertEquals(
+        Optional.of(PassTrigger.STARTED),
+        raccoonService.triggerMealPlanExecution(first.getId()).map(TriggeredPass::getTrigger));
+    assertEquals(Optional.empty(), raccoonService.triggerMealPlanExecution(first.getId()));
+    assertNotSame(first, raccoonService.prepareMealPlan(new RunUpdatesRequest()).block());
+  }
+
+  @Test
+  void onlyExecutedPassesCountAsObservingTransitions() {
+    raccoonService =
+        createRaccoonService(
+            TestProperties.raccoon().build(),
+            new RunStateDebouncer(
+                2,
+                Duration.ZERO,
+                Duration.ofHours(1),
+                System::nanoTime,
+                new RaccoonMetrics(
+                    new SimpleMeterRegistry(), OpenTelemetry.noop().getTracer("test"))));
+    val pods = new RunPodTable();
+    pods.addRun("cluster-a", "wes-failed", 0, WesStates.EXECUTOR_ERROR);
+    when(kubernetesService.getAllCurrentRunPodTable()).thenReturn(pods);
+    when(kubernetesService.getPodLog(any(), any())).thenReturn(PodLog.EMPTY);
+    when(rdpcGatewayService.getAlLActiveRuns(any()))
+        .thenAnswer(invocation -> Flux.just(run("wes-failed")));
+    when(relayWeblogService.updateRunViaWeblog(any())).thenReturn(Mono.just(true));
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(
+          List.of(),
+          raccoonService.prepareMealPlan(new RunUpdatesRequest()).block().getRunUpdates());
+    }
+    // the first pass is the first observation, however many dry-runs saw the run before
+    assertTrue(raccoonService.prepareAndExecuteMealPlan(new RunUpdatesRequest()).block());
+    verify(relayWeblogService, never()).updateRunViaWeblog(any());
+
+    assertTrue(raccoonService.prepareAndExecuteMealPlan(new RunUpdatesRequest()).block());
+    verify(relayWeblogService, times(1)).updateRunViaWeblog(any());
+  }
+
+  @Test
+  void skipsOperationsOfShardsLostMidPass() {
+    val pods = new RunPodTable();
+    pods.addRun("cluster-a", "wes-1", 0, WesStates.EXECUTOR_ERROR);
+    pods.addRun("cluster-a", "wes-2", 0, WesStates.EXECUTOR_ERROR);
+    when(kubernetesService.getAllCurrentRunPodTable()).thenReturn(pods);
+    when(kubernetesService.getPodLog(any(), any())).thenReturn(PodLog.EMPTY);
+    when(rdpcGatewayService.getAlLActiveRuns(any()))
+        .thenReturn(Flux.just(run("wes-1"), run("wes-2")));
+    when(relayWeblogService.updateRunViaWeblog(any())).thenReturn(Mono.just(true));
+    // owned when the operations are queued, lost by the time its turn comes
+    when(shardCoordinator.owns("wes-2")).thenReturn(true, false);
+
+    assertTrue(raccoonService.prepareAndExecuteMealPlan(new RunUpdatesRequest()).block());
+
+    verify(relayWeblogService, times(1)).updateRunViaWeblog(any());
+    verify(relayWeblogService, never())
+        .updateRunViaWeblog(argThat(runUpdate -> runUpdate.getRunId().equals("wes-2")));
+  }
+
+  @Test
+  void keepsPodsOfHeldBackTransitions() {
+    raccoonService =
+        createRaccoonService(
+            TestProperties.raccoon().podRotationDays(0).build(),
+            new RunStateDebouncer(
+                2,
+                Duration.ZERO,
+                Duration.ofHours(1),
+                System::nanoTime,
+                new RaccoonMetrics(
+                    new SimpleMeterRegistry(), OpenTelemetry.noop().getTracer("test"))));
+    val pods = new RunPodTable();
+    pods.addRun("cluster-a", "wes-failed", 0, WesStates.EXECUTOR_ERROR);
+    pods.addTask("cluster-a", "nf-failed-1", "wes-failed", 0, WesStates.EXECUTOR_ERROR);
+    when(kubernetesService.getAllCurrentRunPodTable()).thenReturn(pods);
+    when(kubernetesService.getPodLog(any(), any())).thenReturn(PodLog.of("failure"));
+    when(kubernetesService.deleteRunPod(any())).thenReturn(true);
+    when(rdpcGatewayService.getAlLActiveRuns(any()))
+        .thenAnswer(invocation -> Flux.just(run("wes-failed")));
+    when(relayWeblogService.updateRunViaWeblog(any())).thenReturn(Mono.just(true));
+
+    // past the rotation, but its failure and pod log are yet to be relayed
+    assertTrue(raccoonService.prepareAndExecuteMealPlan(new RunUpdatesRequest()).block());
+    verify(kubernetesService, never()).deleteRunPod(any());
+
+    assertTrue(raccoonService.prepareAndExecuteMealPlan(new RunUpdatesRequest()).block());
+    verify(relayWeblogService)
+        .updateRunViaWeblog(
+            argThat(
+                runUpdate ->
+                    runUpdate.getNewState() == WesStates.EXECUTOR_ERROR
+                        && runUpdate.getLogs().asString().equals("failure")));
+    verify(kubernetesService, times(2)).deleteRunPod(any());
+  }
+
+  @Test
+  void onlyFetchesLogsOfRunsWithStateChange() {
+    val pods = new RunPodTable();
+    pods.addRun("cluster-a", "wes-running", 0, WesStates.RUNNING);
+    pods.addRun("cluster-b", "wes-failed", 0, WesStates.EXECUTOR_ERROR);
+    val fetchedLogs = new ArrayList<String>();
+
+    val runUpdates =
+        RaccoonService.createActiveToInactiveRunUpdates(
+                Flux.just(run("wes-running"), run("wes-failed"), run("wes-gone")),
+                pods,
+                (podName, cluster) -> {
+                  fetchedLogs.add(cluster + "/" + podName);
+                  return PodLog.of("log of " + podName);
+                },
+                RunStateDebouncer.immediate(),
+                observation -> {})
+            .block();
+
+    assertEquals(List.of("cluster-b/wes-failed"), fetchedLogs);
+    assertEquals(2, runUpdates.size());
+    val failed =
+        runUpdates.stream().filter(u -> u.getRunId().equals("wes-failed")).findFirst().get();
+    assertEquals(WesStates.EXECUTOR_ERROR, failed.getNewState());
+    assertEquals("log of wes-failed", failed.getLogs().asString());
+  }
+
+  @Test
+  void terminatedPodsStrategyLooksUpOnlyFinishedRuns() {
+    val pods = new RunPodTable();
+    pods.addRun("cluster-a", "wes-running", 0, WesStates.RUNNING);
+    pods.addRun("cluster-a", "wes-complete", 0, WesStates.COMPLETE);
+    pods.addRun("cluster-a", "wes-failed", 0, WesStates.EXECUTOR_ERROR);
+    pods.addTask("cluster-a", "nf-failed-1", "wes-failed", 0, WesStates.EXECUTOR_ERROR);
+    when(kubernetesService.getAllCurrentRunPodTable()).thenReturn(pods);
+    when(kubernetesService.getPodLog(any(), any())).thenReturn(PodLog.EMPTY);
+    when(rdpcGatewayService.getRunsByIds(List.of("wes-complete", "wes-failed")))
+        .thenReturn(Flux.just(run("wes-complete"), run("wes-failed")));
+    val req = new RunUpdatesRequest();
+    req.setReconcileStrategy(ReconcileStrategy.TERMINATED_PODS);
+
+    val mealPlan = raccoonService.prepareMealPlan(req).block();
+
+    assertEquals(ReconcileStrategy.TERMINATED_PODS, mealPlan.getReconcileStrategy());
+    assertEquals(2, mealPlan.getRunUpdates().size());
+    verify(rdpcGatewayService, never()).getAlLActiveRuns(any());
+  }
+
+  @Test
+  void autoStrategyPicksTheSmallerSide() {
+    val pods = new RunPodTable();
+    pods.addRun("cluster-a", "wes-complete", 0, WesStates.COMPLETE);
+    when(kubernetesService.getAllCurrentRunPodTable()).thenReturn(pods);
+    when(rdpcGatewayService.getAlLActiveRuns(any())).thenReturn(Flux.empty());
+    when(rdpcGatewayService.getRunsByIds(any())).thenReturn(Flux.empty());
+    val req = new RunUpdatesRequest();
+    req.setReconcileStrategy(ReconcileStrategy.AUTO);
+
+    when(rdpcGatewayService.countActiveRuns(any())).thenReturn(Mono.just(500L));
+    assertEquals(
+        ReconcileStrategy.TERMINATED_PODS,
+        raccoonService.prepareMealPlan(req).block().getReconcileStrategy());
+
+    req.setIncludeQueuedRuns(true); // a new request, so not served from the cache
+    when(rdpcGatewayService.countActiveRuns(any())).thenReturn(Mono.just(0L));
+    assertEquals(
+        ReconcileStrategy.ACTIVE_RUNS,
+        raccoonService.prepareMealPlan(req).block().getReconcileStrategy());
+  }
+
+  @Test
+  void executesHighestPriorityOperationsFirst() {
+    raccoonService = createRaccoonService(TestProperties.raccoon().podRotationDays(0).build());
+    val pods = new RunPodTable();
+    pods.addRun("cluster-a", "wes-complete", 0, WesStates.COMPLETE);
+    pods.addRun("cluster-a", "wes-failed", 0, WesStates.EXECUTOR_ERROR);
+    val stuck = pods.addRun("cluster-a", "wes-stuck", 0, WesStates.RUNNING);
+    pods.setResourceRequests(stuck, 64, 256);
+    when(kubernetesService.getAllCurrentRunPodTable()).thenReturn(pods);
+    when(kubernetesService.getPodLog(any(), any())).thenReturn(PodLog.EMPTY);
+    when(kubernetesService.deleteRunPod(any())).thenReturn(true);
+    when(rdpcGatewayService.getAlLActiveRuns(any()))
+        .thenReturn(Flux.just(run("wes-failed"), run("wes-stuck")));
+    when(relayWeblogService.updateRunViaWeblog(any())).thenReturn(Mono.just(true));
+
+    assertTrue(raccoonService.prepareAndExecuteMealPlan(new RunUpdatesRequest()).block());
+
+    // the pod holding resources, then the failed run's update, then pods holding nothing
+    val inOrder = inOrder(kubernetesService, relayWeblogService);
+    inOrder
+        .verify(kubernetesService)
+        .deleteRunPod(argThat(pod -> pod.getRunId().equals("wes-stuck")));
+    inOrder.verify(relayWeblogService).updateRunViaWeblog(any());
+    inOrder.verify(kubernetesService, times(2)).deleteRunPod(any());
+  }
+
+  private static Run run(String runId) {
+    val run = new Run();
+    run.setRunId(runId);
+    run.setRepository("https://github.com/icgc-argo/nextflow-dna-seq-alignment.git");
+    run.setState(WesStates.RUNNING);
+    return run;
+  }
+}
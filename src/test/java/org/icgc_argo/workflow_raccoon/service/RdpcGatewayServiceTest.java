@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import lombok.val;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.icgc_argo.workflow_raccoon.model.rdpc.Run;
+import org.icgc_argo.workflow_raccoon.properties.RdpcProperties;
+import org.icgc_argo.workflow_raccoon.properties.ResilienceProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RdpcGatewayServiceTest {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final List<String> queries = new ArrayList<>();
+  private final AtomicInteger tokenRequests = new AtomicInteger();
+  private MockWebServer rdpc;
+  private RdpcGatewayService rdpcGatewayService;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    rdpc = new MockWebServer();
+    rdpc.setDispatcher(new LookupDispatcher());
+    rdpc.start();
+    rdpcGatewayService =
+        new RdpcGatewayService(
+            new RdpcProperties(
+                rdpc.url("/graphql").toString(),
+                "id",
+                "secret",
+                rdpc.url("/token").toString(),
+                60,
+                new ResilienceProperties(3, 10L, 50L, 5, 1000L)),
+            new RaccoonMetrics(new SimpleMeterRegistry(), OpenTelemetry.noop().getTracer("test")));
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    rdpc.shutdown();
+  }
+
+  @Test
+  void looksUpRunsByIdInBatches() {
+    val runIds = IntStream.range(0, 120).mapToObj(i -> "wes-" + i).collect(toList());
+
+    val runs = rdpcGatewayService.getRunsByIds(runIds).collectList().block();
+
+    // every third run id is unknown to rdpc
+    assertEquals(80, runs.size());
+    assertTrue(runs.stream().map(Run::getRunId).allMatch(runIds::contains));
+    assertEquals(3, queries.size());
+  }
+
+  @Test
+  void queriesWithTheTokenFetchedAhead() {
+    val expiresAt = rdpcGatewayService.refreshToken().block();
+
+    assertTrue(expiresAt.isAfter(Instant.now().plus(Duration.ofMinutes(50))));
+    assertEquals(expiresAt, rdpcGatewayService.refreshToken().block());
+    rdpcGatewayService.getRunsByIds(List.of("wes-1")).collectList().block();
+    assertEquals(1, tokenRequests.get());
+  }
+
+  private class LookupDispatcher extends Dispatcher {
+    @Override
+    @SuppressWarnings("unchecked")
+    public MockResponse dispatch(RecordedRequest request) {
+      if (request.getPath().startsWith("/token")) {
+        tokenRequests.incrementAndGet();
+        return json(Map.of("access_token", "token", "token_type", "Bearer", "expires_in", 3600));
+      }
+      try {
+        val body = MAPPER.readValue(request.getBody().readUtf8(), Map.class);
+        queries.add((String) body.get("query"));
+        val data = new HashMap<String, Object>();
+        ((Map<String, String>) body.get("variables"))
+            .forEach(
+                (alias, runId) -> {
+                  val known = Integer.parseInt(runId.substring(4)) % 3 != 0;
+                  data.put(alias, Map.of("content", known ? List.of(run(runId)) : List.of()));
+                });
+        return json(Map.of("data", data));
+      } catch (IOException e) {
+        return new MockResponse().setResponseCode(500);
+      }
+    }
+
+    private Map<String, Object> run(String runId) {
+      return Map.of(
+          "runId", runId, "repository", "https://github.com/repo.git", "state", "RUNNING");
+    }
+
+    private MockResponse json(Object body) {
+      try {
+        return new MockResponse()
+            .setHeader("Content-Type", "application/json")
+            .setBody(MAPPER.writeValueAsString(body));
+      } catch (IOException e) {
+        return new MockResponse().setResponseCode(500);
+      }
+    }
+  }
+}
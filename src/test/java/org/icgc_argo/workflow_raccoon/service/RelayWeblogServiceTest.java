@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import lombok.val;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
+import org.icgc_argo.workflow_raccoon.model.RunUpdate;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+import org.icgc_argo.workflow_raccoon.properties.ResilienceProperties;
+import org.icgc_argo.workflow_raccoon.properties.TestProperties;
+import org.icgc_argo.workflow_raccoon.properties.WeblogProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+class RelayWeblogServiceTest {
+  private MockWebServer weblog;
+  private RelayWeblogService relayWeblogService;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    weblog = new MockWebServer();
+    weblog.start();
+    relayWeblogService = relayWeblogService(0, 0);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    weblog.shutdown();
+  }
+
+  @Test
+  void streamsPodLogIntoNextflowEvent() throws Exception {
+    val log = "[align] terminated with an error exit status (1) \"quoted\" \\ \t\n".repeat(20000);
+    weblog.enqueue(
+        new MockResponse().setHeader("Content-Type", "application/json").setBody("true"));
+
+    val updated = relayWeblogService.updateRunViaWeblog(runUpdate(PodLog.of(log))).block();
+
+    assertTrue(updated);
+    val body = new ObjectMapper().readTree(weblog.takeRequest().getBody().inputStream());
+    assertEquals("wes-1", body.get("runName").asText());
+    assertEquals(log, body.at("/metadata/workflow/errorReport").asText());
+  }
+
+  @Test
+  void failsRelayWhenPodLogCannotBeSerialized(@TempDir Path spillDirectory) throws Exception {
+    val log = PodLog.compress(new StringReader("error"), 0, spillDirectory);
+    try (val spilled = Files.list(spillDirectory)) {
+      for (val file : spilled.collect(toList())) {
+        Files.delete(file);
+      }
+    }
+    for (int i = 0; i < 3; i++) {
+      weblog.enqueue(
+          new MockResponse().setHeader("Content-Type", "application/json").setBody("true"));
+    }
+
+    val failure =
+        assertThrows(
+            RuntimeException.class,
+            () -> relayWeblogService.updateRunViaWeblog(runUpdate(log)).block());
+
+    Throwable cause = failure;
+    while (cause != null && !(cause instanceof NoSuchFileException)) {
+      cause = cause.getCause();
+    }
+    assertNotNull(cause, "relay failed with " + failure);
+  }
+
+  @Test
+  void retriesTransientWeblogFailures() {
+    weblog.enqueue(new MockResponse().setResponseCode(503));
+    weblog.enqueue(
+        new MockResponse().setHeader("Content-Type", "application/json").setBody("true"));
+
+    val updated = relayWeblogService.updateRunViaWeblog(runUpdate(PodLog.of("error"))).block();
+
+    assertTrue(updated);
+    assertEquals(2, weblog.getRequestCount());
+  }
+
+  @Test
+  void doesNotRetryRejectedEvents() {
+    weblog.enqueue(new MockResponse().setResponseCode(400));
+
+    assertThrows(
+        WebClientResponseException.BadRequest.class,
+        () -> relayWeblogService.updateRunViaWeblog(runUpdate(PodLog.of("error"))).block());
+    assertEquals(1, weblog.getRequestCount());
+  }
+
+  @Test
+  void skipsUpdatesRelayedRecently() {
+    val service = relayWeblogService(60, 10);
+    weblog.enqueue(
+        new MockResponse().setHeader("Content-Type", "application/json").setBody("true"));
+
+    assertTrue(service.updateRunViaWeblog(runUpdate(PodLog.of("error"))).block());
+    assertTrue(service.updateRunViaWeblog(runUpdate(PodLog.of("error"))).block());
+
+    assertEquals(1, weblog.getRequestCount());
+  }
+
+  @Test
+  void relaysNewStateOfRecentlyRelayedRun() {
+    val service = relayWeblogService(60, 10);
+    weblog.enqueue(
+        new MockResponse().setHeader("Content-Type", "application/json").setBody("true"));
+    weblog.enqueue(
+        new MockResponse().setHeader("Content-Type", "application/json").setBody("true"));
+
+    assertTrue(service.updateRunViaWeblog(runUpdate(PodLog.of("error"))).block());
+    val completed = runUpdate(PodLog.of("")).toBuilder().newState(WesStates.COMPLETE).build();
+    assertTrue(service.updateRunViaWeblog(completed).block());
+
+    assertEquals(2, weblog.getRequestCount());
+  }
+
+  @Test
+  void doesNotSkipUpdatesThatFailedToRelay() {
+    val service = relayWeblogService(60, 10);
+    weblog.enqueue(new MockResponse().setResponseCode(400));
+    weblog.enqueue(
+        new MockResponse().setHeader("Content-Type", "application/json").setBody("true"));
+
+    assertThrows(
+        WebClientResponseException.BadRequest.class,
+        () -> service.updateRunViaWeblog(runUpdate(PodLog.of("error"))).block());
+    assertTrue(service.updateRunViaWeblog(runUpdate(PodLog.of("error"))).block());
+
+    assertEquals(2, weblog.getRequestCount());
+  }
+
+  private RelayWeblogService relayWeblogService(int cacheTtlSec, int cacheMaxSize) {
+    return new RelayWeblogService(
+        new WeblogProperties(
+            weblog.url("/").toString(),
+            cacheTtlSec,
+            cacheMaxSize,
+            new ResilienceProperties(3, 10L, 50L, 5, 1000L)),
+        TestProperties.raccoon().build(),
+        new RaccoonMetrics(new SimpleMeterRegistry(), OpenTelemetry.noop().getTracer("test")));
+  }
+
+  private static RunUpdate runUpdate(PodLog log) {
+    val now = OffsetDateTime.now(ZoneOffset.UTC);
+    return RunUpdate.builder()
+        .runId("wes-1")
+        .sessionId("session-1")
+        .workflowUrl("https://github.com/icgc-argo/nextflow-dna-seq-alignment.git")
+        .currentState(WesStates.RUNNING)
+        .newState(WesStates.EXECUTOR_ERROR)
+        .startTime(now.minusHours(1))
+        .completeTime(now)
+        .logs(log)
+        .build();
+  }
+}
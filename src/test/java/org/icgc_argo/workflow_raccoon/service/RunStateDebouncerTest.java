@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.fabric8.kubernetes.api.model.ContainerStatusBuilder;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.RunStateObservation;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+import org.junit.jupiter.api.Test;
+
+class RunStateDebouncerTest {
+  private final AtomicLong now = new AtomicLong();
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final RunStateDebouncer debouncer =
+      new RunStateDebouncer(
+          2,
+          Duration.ofSeconds(60),
+          Duration.ofHours(1),
+          now::get,
+          new RaccoonMetrics(registry, OpenTelemetry.noop().getTracer("test")));
+
+  @Test
+  void confirmsTransitionObservedEnoughTimesOverTheWindow() {
+    assertFalse(debouncer.confirm("wes-1", WesStates.EXECUTOR_ERROR));
+    now.addAndGet(Duration.ofSeconds(30).toNanos());
+    assertFalse(debouncer.confirm("wes-1", WesStates.EXECUTOR_ERROR));
+    now.addAndGet(Duration.ofSeconds(30).toNanos());
+    assertTrue(debouncer.confirm("wes-1", WesStates.EXECUTOR_ERROR));
+    // stays confirmed in case relaying it failed
+    assertTrue(debouncer.confirm("wes-1", WesStates.EXECUTOR_ERROR));
+
+    assertEquals(
+        2.0,
+        registry
+            .get("raccoon.run.transitions.heldback")
+            .tag("state", "EXECUTOR_ERROR")
+            .counter()
+            .count());
+  }
+
+  @Test
+  void flappingStateRestartsTheWindow() {
+    assertFalse(debouncer.confirm("wes-1", WesStates.EXECUTOR_ERROR));
+    now.addAndGet(Duration.ofSeconds(60).toNanos());
+    assertFalse(debouncer.confirm("wes-1", WesStates.SYSTEM_ERROR));
+    now.addAndGet(Duration.ofSeconds(60).toNanos());
+    assertTrue(debouncer.confirm("wes-1", WesStates.SYSTEM_ERROR));
+
+    debouncer.reset("wes-1");
+    assertFalse(debouncer.confirm("wes-1", WesStates.SYSTEM_ERROR));
+  }
+
+  @Test
+  void forgetsTransitionsNotObservedAgain() {
+    assertFalse(debouncer.confirm("wes-1", WesStates.COMPLETE));
+    now.addAndGet(Duration.ofHours(2).toNanos());
+    assertFalse(debouncer.confirm("wes-1", WesStates.COMPLETE));
+  }
+
+  @Test
+  void lookingUpConfirmationRecordsNothing() {
+    now.addAndGet(Duration.ofSeconds(60).toNanos());
+    assertFalse(debouncer.isConfirmed("wes-1", WesStates.EXECUTOR_ERROR));
+    assertFalse(debouncer.isConfirmed("wes-1", WesStates.EXECUTOR_ERROR));
+
+    debouncer.record(
+        List.of(new RunStateObservation("wes-1", WesStates.RUNNING, WesStates.EXECUTOR_ERROR)));
+    now.addAndGet(Duration.ofSeconds(60).toNanos());
+    assertTrue(debouncer.isConfirmed("wes-1", WesStates.EXECUTOR_ERROR));
+
+    debouncer.record(
+        List.of(new RunStateObservation("wes-1", WesStates.RUNNING, WesStates.RUNNING)));
+    assertFalse(debouncer.isConfirmed("wes-1", WesStates.EXECUTOR_ERROR));
+  }
+
+  @Test
+  void immediateConfirmsRightAway() {
+    assertTrue(RunStateDebouncer.immediate().confirm("wes-1", WesStates.COMPLETE));
+  }
+
+  @Test
+  void classifiesPodsByContainerStatus() {
+    assertEquals(WesStates.UNKNOWN, KubernetesService.getRunExecutorState(pod("Pending", null)));
+    assertEquals(
+        WesStates.SYSTEM_ERROR,
+        KubernetesService.getRunExecutorState(pod("Pending", waiting("ImagePullBackOff"))));
+    assertEquals(WesStates.UNKNOWN, KubernetesService.getRunExecutorState(pod("Unknown", null)));
+    assertEquals(WesStates.RUNNING, KubernetesService.getRunExecutorState(pod("Running", null)));
+    assertEquals(
+        WesStates.EXECUTOR_ERROR,
+        KubernetesService.getRunExecutorState(pod("Running", terminated(137))));
+    assertEquals(
+        WesStates.RUNNING, KubernetesService.getRunExecutorState(pod("Running", terminated(0))));
+    assertEquals(WesStates.COMPLETE, KubernetesService.getRunExecutorState(pod("Succeeded", null)));
+    assertEquals(
+        WesStates.EXECUTOR_ERROR, KubernetesService.getRunExecutorState(pod("Failed", null)));
+  }
+
+  private static Pod pod(String phase, ContainerStatusBuilder container) {
+    val status = new PodBuilder().withNewStatus().withPhase(phase);
+    if (container != null) {
+      status.addToContainerStatuses(container.build());
+    }
+    return status.endStatus().build();
+  }
+
+  private static ContainerStatusBuilder waiting(String reason) {
+    return new ContainerStatusBuilder()
+        .withName("main")
+        .withNewState()
+        .withNewWaiting()
+        .withReason(reason)
+        .endWaiting()
+        .endState();
+  }
+
+  private static ContainerStatusBuilder terminated(int exitCode) {
+    return new ContainerStatusBuilder()
+        .withName("sidecar")
+        .withNewState()
+        .withNewTerminated()
+        .withExitCode(exitCode)
+        .endTerminated()
+        .endState();
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.model.PodLog;
+import org.icgc_argo.workflow_raccoon.model.WesStates;
+import org.icgc_argo.workflow_raccoon.model.rdpc.Run;
+import org.icgc_argo.workflow_raccoon.properties.WatchProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class RunTerminationRelayTest {
+  private final AtomicReference<BiConsumer<String, Pod>> watchHandler = new AtomicReference<>();
+  private KubernetesService kubernetesService;
+  private RdpcGatewayService rdpcGatewayService;
+  private RelayWeblogService relayWeblogService;
+  private ShardCoordinator shardCoordinator;
+  private SimpleMeterRegistry registry;
+  private RunTerminationRelay relay;
+
+  @BeforeEach
+  void setUp() {
+    kubernetesService = mock(KubernetesService.class);
+    rdpcGatewayService = mock(RdpcGatewayService.class);
+    relayWeblogService = mock(RelayWeblogService.class);
+    shardCoordinator = mock(ShardCoordinator.class);
+    when(shardCoordinator.owns(any())).thenReturn(true);
+    when(kubernetesService.watchTerminatedRunPods(any()))
+        .thenAnswer(
+            invocation -> {
+              watchHandler.set(invocation.getArgument(0));
+              return Disposables.single();
+            });
+    when(kubernetesService.getPodLog(any(), any())).thenReturn(PodLog.EMPTY);
+    when(relayWeblogService.updateRunViaWeblog(any())).thenReturn(Mono.just(true));
+    registry = new SimpleMeterRegistry();
+    relay =
+        new RunTerminationRelay(
+            new WatchProperties(true, 10, 50),
+            kubernetesService,
+            rdpcGatewayService,
+            relayWeblogService,
+            shardCoordinator,
+            new RaccoonMetrics(registry, OpenTelemetry.noop().getTracer("test")));
+    relay.start();
+  }
+
+  @AfterEach
+  void tearDown() {
+    relay.stop();
+  }
+
+  @Test
+  void relaysTerminationOfActiveRun() {
+    when(rdpcGatewayService.getRunsByIds(any()))
+        .thenReturn(Flux.just(run("wes-failed", WesStates.RUNNING)));
+
+    watchHandler.get().accept("cluster-a", pod("wes-failed", "Failed"));
+    // a terminated pod keeps being modified, e.g. once deleted
+    watchHandler.get().accept("cluster-a", pod("wes-failed", "Failed"));
+
+    verify(relayWeblogService, timeout(5000))
+        .updateRunViaWeblog(
+            argThat(
+                update ->
+                    update.getRunId().equals("wes-failed")
+                        && update.getNewState() == WesStates.EXECUTOR_ERROR));
+    verify(rdpcGatewayService)
+        .getRunsByIds(argThat(ids -> List.copyOf(ids).equals(List.of("wes-failed"))));
+  }
+
+  @Test
+  void ignoresRunsNoLongerActive() {
+    when(rdpcGatewayService.getRunsByIds(any()))
+        .thenReturn(Flux.just(run("wes-done", WesStates.COMPLETE)));
+
+    relay
+        .relay(
+            List.of(
+                new RunTerminationRelay.TerminatedPod("cluster-a", pod("wes-done", "Succeeded"))))
+        .block();
+
+    verify(relayWeblogService, never()).updateRunViaWeblog(any());
+    assertEquals(
+        1.0,
+        registry.get("raccoon.watch.terminations").tag("outcome", "ignored").counter().count());
+  }
+
+  @Test
+  void skipsRunsWhoseShardWasLostWhileBatched() {
+    when(rdpcGatewayService.getRunsByIds(any()))
+        .thenReturn(Flux.just(run("wes-lost", WesStates.RUNNING)));
+    when(shardCoordinator.owns("wes-lost")).thenReturn(false);
+
+    relay
+        .relay(
+            List.of(new RunTerminationRelay.TerminatedPod("cluster-a", pod("wes-lost", "Failed"))))
+        .block();
+
+    verify(relayWeblogService, never()).updateRunViaWeblog(any());
+  }
+
+  @Test
+  void relaysRestOfBatchWhenOneUpdateFails() {
+    when(rdpcGatewayService.getRunsByIds(any()))
+        .thenReturn(Flux.just(run("wes-1", WesStates.RUNNING), run("wes-2", WesStates.RUNNING)));
+    when(relayWeblogService.updateRunViaWeblog(
+            argThat(update -> update.getRunId().equals("wes-1"))))
+        .thenReturn(Mono.error(new IllegalStateException("weblog down")));
+
+    relay
+        .relay(
+            List.of(
+                new RunTerminationRelay.TerminatedPod("cluster-a", pod("wes-1", "Failed")),
+                new RunTerminationRelay.TerminatedPod("cluster-a", pod("wes-2", "Failed"))))
+        .block();
+
+    verify(relayWeblogService)
+        .updateRunViaWeblog(argThat(update -> update.getRunId().equals("wes-2")));
+  }
+
+  private static Pod pod(String name, String phase) {
+    return new PodBuilder()
+        .withNewMetadata()
+        .withName(name)
+        .endMetadata()
+        .withNewStatus()
+        .withPhase(phase)
+        .withStartTime("2021-06-01T10:00:00Z")
+        .endStatus()
+        .build();
+  }
+
+  private static Run run(String runId, WesStates state) {
+    val run = new Run();
+    run.setRunId(runId);
+    run.setSessionId("session-" + runId);
+    run.setRepository("https://github.com/icgc-argo/nextflow-dna-seq-alignment.git");
+    run.setState(state);
+    return run;
+  }
+}
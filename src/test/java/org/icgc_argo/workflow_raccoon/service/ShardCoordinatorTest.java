@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.service;
+
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.fabric8.kubernetes.api.model.coordination.v1.Lease;
+import io.fabric8.kubernetes.client.server.mock.KubernetesCrudDispatcher;
+import io.fabric8.kubernetes.client.server.mock.KubernetesMockServer;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import io.fabric8.mockwebserver.Context;
+import java.net.HttpURLConnection;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+import lombok.val;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.icgc_argo.workflow_raccoon.model.ShardLease;
+import org.icgc_argo.workflow_raccoon.properties.ShardingProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ShardCoordinatorTest {
+  private static final int SHARDS = 8;
+
+  private KubernetesMockServer server;
+  private Instant now = Instant.parse("2022-04-01T00:00:00Z");
+
+  @BeforeEach
+  void setUp() {
+    server =
+        new KubernetesMockServer(
+            new Context(),
+            new MockWebServer(),
+            new HashMap<>(),
+            new OptimisticLockingDispatcher(),
+            false);
+    server.init();
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.destroy();
+  }
+
+  @Test
+  void replicasSplitTheShardsAndEachRunHasOneOwner() {
+    val a = coordinator("replica-a");
+    val b = coordinator("replica-b");
+
+    a.rebalance(); // alone so far, takes every shard
+    // b announces itself, a keeps renewing its fair share and leaves the rest to expire
+    renewalRounds(4, a, b);
+
+    assertEquals(SHARDS / 2, a.getOwnedShards().size());
+    assertEquals(SHARDS / 2, b.getOwnedShards().size());
+    IntStream.range(0, 100)
+        .mapToObj(i -> "wes-" + i)
+        .forEach(runId -> assertTrue(a.owns(runId) ^ b.owns(runId), runId));
+  }
+
+  @Test
+  void survivorTakesOverShardsOfStoppedReplica() {
+    val a = coordinator("replica-a");
+    val b = coordinator("replica-b");
+    a.rebalance();
+    renewalRounds(4, a, b);
+
+    // a stops renewing, e.g. its pod was killed
+    renewalRounds(3, b);
+
+    assertEquals(SHARDS, b.getOwnedShards().size());
+    assertTrue(IntStream.range(0, 100).allMatch(i -> b.owns("wes-" + i)));
+    assertTrue(IntStream.range(0, 100).noneMatch(i -> a.owns("wes-" + i)));
+  }
+
+  @Test
+  void stoppedReplicaReleasesItsShards() {
+    val a = coordinator("replica-a");
+    val b = coordinator("replica-b");
+    a.rebalance();
+    b.rebalance();
+
+    a.stop();
+    b.rebalance();
+
+    assertEquals(IntStream.range(0, SHARDS).boxed().collect(toSet()), b.getOwnedShards());
+  }
+
+  @Test
+  void onlyOneOfRacingWritesWins() {
+    val backend = new KubernetesShardLeaseBackend(server.createClient(), "test", "raccoon");
+    val lease = ShardLease.builder().name("raccoon-shard-0").renewTime(now).durationSec(30);
+
+    assertTrue(backend.compareAndSet(null, lease.holder("replica-a").build()));
+    assertFalse(backend.compareAndSet(null, lease.holder("replica-b").build()));
+    val observed = backend.getLeases().get("raccoon-shard-0");
+    assertTrue(backend.compareAndSet(observed, lease.holder("replica-b").build()));
+    assertFalse(backend.compareAndSet(observed, lease.holder("replica-c").build()));
+    assertEquals("replica-b", backend.getLeases().get("raccoon-shard-0").getHolder());
+  }
+
+  private ShardCoordinator coordinator(String replicaId) {
+    val client = server.createClient();
+    return new ShardCoordinator(
+        new ShardingProperties(true, replicaId, SHARDS, "", "", "raccoon", 30, 10),
+        new KubernetesShardLeaseBackend(client, "test", "raccoon"),
+        new Clock() {
+          @Override
+          public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+          }
+
+          @Override
+          public Clock withZone(ZoneId zone) {
+            return this;
+          }
+
+          @Override
+          public Instant instant() {
+            return now;
+          }
+        });
+  }
+
+  /** The 5.12 CRUD mock ignores resourceVersion on replace, the API server rejects stale ones. */
+  private static class OptimisticLockingDispatcher extends KubernetesCrudDispatcher {
+    OptimisticLockingDispatcher() {
+      super(List.of());
+    }
+
+    @Override
+    public synchronized MockResponse handleUpdate(String path, String body) {
+      val current = handleGet(path);
+      if (current.getStatus().contains(" 200 ")) {
+        val currentVersion = resourceVersion(current.getBody().readUtf8());
+        if (!currentVersion.equals(resourceVersion(body))) {
+          return new MockResponse().setResponseCode(HttpURLConnection.HTTP_CONFLICT);
+        }
+      }
+      return super.handleUpdate(path, body);
+    }
+
+    private static String resourceVersion(String json) {
+      return Serialization.unmarshal(json, Lease.class).getMetadata().getResourceVersion();
+    }
+  }
+
+  private void renewalRounds(int rounds, ShardCoordinator... coordinators) {
+    for (int i = 0; i < rounds; i++) {
+      now = now.plusSeconds(10);
+      for (val coordinator : coordinators) {
+        coordinator.rebalance();
+      }
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.val;
+import org.icgc_argo.workflow_raccoon.utils.CircuitBreaker.CircuitBreakerOpenException;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+class CircuitBreakerTest {
+  private final AtomicLong now = new AtomicLong();
+  private final AtomicInteger calls = new AtomicInteger();
+
+  @Test
+  void opensAfterConsecutiveFailuresAndFailsFast() {
+    val breaker = new CircuitBreaker("test", 2, Duration.ofNanos(10), now::get);
+    failOnce(breaker);
+    failOnce(breaker);
+
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    assertThrows(CircuitBreakerOpenException.class, () -> breaker.protect(succeeding()).block());
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  void closesAfterSuccessfulTrialCall() {
+    val breaker = new CircuitBreaker("test", 1, Duration.ofNanos(10), now::get);
+    failOnce(breaker);
+
+    now.set(10);
+    assertEquals("ok", breaker.protect(succeeding()).block());
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  void reopensAfterFailedTrialCall() {
+    val breaker = new CircuitBreaker("test", 3, Duration.ofNanos(10), now::get);
+    failOnce(breaker);
+    failOnce(breaker);
+    failOnce(breaker);
+
+    now.set(10);
+    failOnce(breaker);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    now.set(15);
+    assertThrows(CircuitBreakerOpenException.class, () -> breaker.protect(succeeding()).block());
+  }
+
+  @Test
+  void reopensAfterCancelledTrialCall() {
+    val breaker = new CircuitBreaker("test", 1, Duration.ofNanos(10), now::get);
+    failOnce(breaker);
+
+    now.set(10);
+    breaker.protect(Mono.never()).subscribe().dispose();
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+    now.set(20);
+    assertEquals("ok", breaker.protect(succeeding()).block());
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  void cancellingAfterSuccessKeepsItClosed() {
+    val breaker = new CircuitBreaker("test", 1, Duration.ofNanos(10), now::get);
+
+    assertEquals("ok", breaker.protect(succeeding()).flux().take(1).blockFirst());
+    assertEquals("ok", Mono.zip(breaker.protect(succeeding()), Mono.just(1)).block().getT1());
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  private void failOnce(CircuitBreaker breaker) {
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            breaker
+                .protect(
+                    Mono.fromCallable(
+                        () -> {
+                          calls.incrementAndGet();
+                          throw new IllegalStateException("down");
+                        }))
+                .block());
+  }
+
+  private Mono<String> succeeding() {
+    return Mono.fromCallable(
+        () -> {
+          calls.incrementAndGet();
+          return "ok";
+        });
+  }
+}
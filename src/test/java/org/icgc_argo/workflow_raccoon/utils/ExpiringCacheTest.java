@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2021 The Ontario Institute for Cancer Research. All rights reserved
+ *
+ * This program and the accompanying materials are made available under the terms of he GNU Affero General Public License v3.0.
+ * You should have received a copy of the GNU Affero General Public License along with
+ * this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.icgc_argo.workflow_raccoon.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.val;
+import org.junit.jupiter.api.Test;
+
+class ExpiringCacheTest {
+  private final AtomicLong now = new AtomicLong();
+
+  @Test
+  void evictsEntriesOlderThanTtl() {
+    val cache = new ExpiringCache<String, String>(Duration.ofNanos(10), 10, now::get);
+    cache.put("a", "1");
+    now.set(5);
+    cache.put("b", "2");
+
+    now.set(10);
+    assertEquals(Optional.empty(), cache.get("a"));
+    assertEquals(Optional.of("2"), cache.get("b"));
+  }
+
+  @Test
+  void evictsOldestEntriesBeyondMaxSize() {
+    val cache = new ExpiringCache<String, String>(Duration.ofSeconds(1), 2, now::get);
+    cache.put("a", "1");
+    cache.put("b", "2");
+    cache.put("a", "3");
+    cache.put("c", "4");
+
+    assertEquals(2, cache.size());
+    assertEquals(Optional.empty(), cache.get("b"));
+    assertEquals(Optional.of("3"), cache.get("a"));
+  }
+
+  @Test
+  void conditionalRemoveKeepsNewerValue() {
+    val cache = new ExpiringCache<String, String>(Duration.ofSeconds(1), 2, now::get);
+    cache.put("a", "1");
+    cache.put("a", "2");
+
+    assertEquals(false, cache.remove("a", "1"));
+    assertEquals(Optional.of("2"), cache.get("a"));
+  }
+
+  @Test
+  void conditionalRemoveKeepsEqualNewerInstance() {
+    val cache = new ExpiringCache<String, List<String>>(Duration.ofSeconds(1), 2, now::get);
+    val first = List.of("1");
+    val second = new ArrayList<>(first);
+    cache.put("a", first);
+    cache.put("a", second);
+
+    assertEquals(false, cache.remove("a", first));
+    assertSame(second, cache.get("a").get());
+    assertEquals(true, cache.remove("a", second));
+  }
+}